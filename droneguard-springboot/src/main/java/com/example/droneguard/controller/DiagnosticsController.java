@@ -0,0 +1,45 @@
+package com.example.droneguard.controller;
+
+import com.example.droneguard.diagnostics.DiagnosticsChannel;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/diagnostics")
+public class DiagnosticsController {
+
+    private final DiagnosticsChannel diagnostics;
+
+    public DiagnosticsController(DiagnosticsChannel diagnostics) {
+        this.diagnostics = diagnostics;
+    }
+
+    /**
+     * Current diagnostics settings and counters
+     */
+    @GetMapping
+    public Map<String, Object> getDiagnostics() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", diagnostics.isEnabled());
+        status.put("sample_every", diagnostics.getSampleEvery());
+        status.put("traced_frames", diagnostics.getTraced());
+        status.put("dropped_traces", diagnostics.getDropped());
+        return status;
+    }
+
+    /**
+     * Switch per-frame decode traces on or off, e.g. POST /api/diagnostics?enabled=true&sampleEvery=10
+     */
+    @PostMapping
+    public Map<String, Object> updateDiagnostics(@RequestParam(required = false) Boolean enabled,
+                                                 @RequestParam(required = false) Integer sampleEvery) {
+        diagnostics.configure(enabled, sampleEvery);
+        return getDiagnostics();
+    }
+}
@@ -1,16 +1,26 @@
 package com.example.droneguard.controller;
 
+import com.example.droneguard.video.AsyncMjpegStreamer;
+import com.example.droneguard.video.CameraManager;
+import com.example.droneguard.video.FrameBroadcaster;
+import com.example.droneguard.video.RenditionLadder;
 import com.example.droneguard.video.VideoCaptureLoop;
+import com.example.droneguard.yolo.YOLOOnnxService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.OutputStream;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
@@ -18,11 +28,27 @@ import java.time.format.DateTimeFormatter;
 @Controller
 public class VideoStreamController {
 
-    private final VideoCaptureLoop videoCaptureLoop;
-    private static final String BOUNDARY = "frame";
-
-    public VideoStreamController(VideoCaptureLoop videoCaptureLoop) {
-        this.videoCaptureLoop = videoCaptureLoop;
+    private final CameraManager cameras;
+    private final YOLOOnnxService yolo;
+    private final AsyncMjpegStreamer asyncStreamer;
+    private final RenditionLadder ladder;
+    private final boolean asyncStreaming;
+    private final boolean virtualThreads;
+    private static final String BOUNDARY = FrameBroadcaster.BOUNDARY;
+    private static final long KEEP_ALIVE_MS = 1000;
+
+    public VideoStreamController(CameraManager cameras, YOLOOnnxService yolo, AsyncMjpegStreamer asyncStreamer,
+                                 RenditionLadder ladder,
+                                 @Value("${droneguard.stream.mode:async}") String streamMode,
+                                 @Value("${droneguard.threads.virtual:false}") boolean virtualThreads) {
+        this.cameras = cameras;
+        this.yolo = yolo;
+        this.asyncStreamer = asyncStreamer;
+        this.ladder = ladder;
+        this.asyncStreaming = !"blocking".equalsIgnoreCase(streamMode);
+        this.virtualThreads = virtualThreads;
+        System.out.println("📺 MJPEG streaming mode: " + (asyncStreaming ? "async (non-blocking writes)"
+                : virtualThreads ? "blocking (one virtual thread per viewer)" : "blocking (one thread per viewer)"));
     }
 
     /**
@@ -34,69 +60,137 @@ public class VideoStreamController {
     }
 
     /**
-     * MJPEG video stream endpoint
+     * MJPEG video stream of the default camera; {@code ?w=&q=} picks a smaller or lower-quality rendition
      */
     @GetMapping(value = "/video/stream")
-    public ResponseEntity<StreamingResponseBody> videoStream() {
-        StreamingResponseBody stream = outputStream -> {
-            System.out.println("📺 Client connected to video stream");
-            try {
-                int streamedFrames = 0;
-
-                while (!Thread.currentThread().isInterrupted()) {
-                    byte[] frameData = videoCaptureLoop.getLatestJpeg();
-
-                    if (frameData != null && frameData.length > 0) {
-                        try {
-                            String boundary = "--" + BOUNDARY + "\r\n";
-                            String header = "Content-Type: image/jpeg\r\n\r\n";
-                            outputStream.write(boundary.getBytes(StandardCharsets.US_ASCII));
-                            outputStream.write(header.getBytes(StandardCharsets.US_ASCII));
-                            outputStream.write(frameData);
-                            outputStream.write("\r\n".getBytes(StandardCharsets.US_ASCII));
-                            outputStream.flush();
-
-                            streamedFrames++;
-                            if (streamedFrames % 300 == 0) {
-                                System.out.println("📺 Streamed " + streamedFrames + " frames");
-                            }
-                        } catch (IOException e) {
-                            System.out.println("📺 Client disconnected: " + e.getMessage());
-                            break;
-                        }
-                    }
+    public ResponseEntity<StreamingResponseBody> videoStream(@RequestParam(required = false) Integer w,
+                                                             @RequestParam(required = false) Integer q,
+                                                             HttpServletRequest request,
+                                                             HttpServletResponse response) throws IOException {
+        return streamFrom(cameras.getDefaultCamera(), ladder.snap(w, q), request, response);
+    }
 
-                    try {
-                        Thread.sleep(33); // ~30 FPS
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        break;
-                    }
+    /**
+     * MJPEG video stream of one camera
+     */
+    @GetMapping(value = "/video/{cameraId}/stream")
+    public ResponseEntity<StreamingResponseBody> cameraStream(@PathVariable String cameraId,
+                                                              @RequestParam(required = false) Integer w,
+                                                              @RequestParam(required = false) Integer q,
+                                                              HttpServletRequest request,
+                                                              HttpServletResponse response) throws IOException {
+        VideoCaptureLoop camera = cameras.getCamera(cameraId);
+        if (camera == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return streamFrom(camera, ladder.snap(w, q), request, response);
+    }
+
+    private ResponseEntity<StreamingResponseBody> streamFrom(VideoCaptureLoop videoCaptureLoop,
+                                                             RenditionLadder.Rendition rendition,
+                                                             HttpServletRequest request,
+                                                             HttpServletResponse response) throws IOException {
+        HttpHeaders headers = streamHeaders();
+        FrameBroadcaster broadcaster = videoCaptureLoop.getBroadcaster(rendition);
+        if (asyncStreaming) {
+            // Written by the async streamer; returning null tells Spring the response is handled
+            headers.forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+            asyncStreamer.stream(videoCaptureLoop, broadcaster, request, response);
+            return null;
+        }
+
+        if (virtualThreads) {
+            // Request threads are virtual, so stream right on this one. Handing off through Spring's
+            // async support would finish each stream inside a synchronized block, which pins the carrier
+            headers.forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+            streamBlocking(videoCaptureLoop, broadcaster, response.getOutputStream());
+            return null;
+        }
+        return new ResponseEntity<>(outputStream -> streamBlocking(videoCaptureLoop, broadcaster, outputStream),
+                headers, HttpStatus.OK);
+    }
+
+    /**
+     * Send every new frame to one viewer until it disconnects, on the calling thread
+     */
+    private void streamBlocking(VideoCaptureLoop videoCaptureLoop, FrameBroadcaster broadcaster,
+                                OutputStream outputStream) {
+        System.out.println("📺 Client connected to video stream of camera " + videoCaptureLoop.getCameraId());
+        broadcaster.viewerConnected();
+        try {
+            int streamedFrames = 0;
+            long sequence = -1;
+
+            while (!Thread.currentThread().isInterrupted()) {
+                // Block until the encoder publishes a newer frame; if the source stalls,
+                // resend the latest one now and then so a dead connection is still noticed
+                FrameBroadcaster.Frame frame = broadcaster.awaitNewer(sequence, KEEP_ALIVE_MS);
+                if (frame == null) {
+                    frame = broadcaster.retainLatest();
                 }
 
-            } catch (Exception e) {
-                System.err.println("❌ Streaming error: " + e.getMessage());
-            } finally {
-                System.out.println("📺 Video stream ended");
+                try {
+                    frame.writeTo(outputStream);
+                    outputStream.flush();
+                    sequence = frame.sequence;
+
+                    streamedFrames++;
+                    if (streamedFrames % 300 == 0) {
+                        System.out.println("📺 Streamed " + streamedFrames + " frames");
+                    }
+                } catch (IOException e) {
+                    System.out.println("📺 Client disconnected: " + e.getMessage());
+                    break;
+                } finally {
+                    frame.release();
+                }
             }
-        };
 
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("❌ Streaming error: " + e.getMessage());
+        } finally {
+            broadcaster.viewerDisconnected();
+            System.out.println("📺 Video stream ended");
+        }
+    }
+
+    private static HttpHeaders streamHeaders() {
         HttpHeaders headers = new HttpHeaders();
         headers.set("Cache-Control", "no-store, no-cache, must-revalidate, max-age=0");
         headers.set("Pragma", "no-cache");
         headers.set("Expires", "Thu, 01 Jan 1970 00:00:00 GMT");
         headers.set("Connection", "close");
         headers.set("Content-Type", "multipart/x-mixed-replace;boundary=" + BOUNDARY);
-
-        return new ResponseEntity<>(stream, headers, HttpStatus.OK);
+        return headers;
     }
 
     /**
-     * Single frame endpoint
+     * Single frame endpoint for the default camera; {@code ?w=&q=} as for the stream, encoded on demand
      */
     @GetMapping(value = "/video/frame", produces = MediaType.IMAGE_JPEG_VALUE)
-    public ResponseEntity<byte[]> getSingleFrame() {
-        byte[] frame = videoCaptureLoop.getLatestJpeg();
+    public ResponseEntity<byte[]> getSingleFrame(@RequestParam(required = false) Integer w,
+                                                 @RequestParam(required = false) Integer q) {
+        return frameFrom(cameras.getDefaultCamera(), ladder.snap(w, q));
+    }
+
+    /**
+     * Single frame endpoint for one camera
+     */
+    @GetMapping(value = "/video/{cameraId}/frame", produces = MediaType.IMAGE_JPEG_VALUE)
+    public ResponseEntity<byte[]> getCameraFrame(@PathVariable String cameraId,
+                                                 @RequestParam(required = false) Integer w,
+                                                 @RequestParam(required = false) Integer q) {
+        VideoCaptureLoop camera = cameras.getCamera(cameraId);
+        if (camera == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return frameFrom(camera, ladder.snap(w, q));
+    }
+
+    private ResponseEntity<byte[]> frameFrom(VideoCaptureLoop videoCaptureLoop, RenditionLadder.Rendition rendition) {
+        byte[] frame = videoCaptureLoop.getLatestJpeg(rendition);
 
         if (frame == null || frame.length == 0) {
             return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
@@ -111,21 +205,28 @@ public class VideoStreamController {
     }
 
     /**
-     * Status endpoint
+     * Status endpoint, one block per camera
      */
     @GetMapping("/video/status")
     public ResponseEntity<String> getStatus() {
-        byte[] frame = videoCaptureLoop.getLatestJpeg();
-        String captureStats = videoCaptureLoop.getStats();
-
         String timestamp = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
                 .withZone(ZoneId.systemDefault())
                 .format(Instant.now());
 
+        StringBuilder cameraStatus = new StringBuilder();
+        for (VideoCaptureLoop camera : cameras.getCameras()) {
+            int frameSize = camera.getBroadcaster().getLatest().getLength();
+            cameraStatus.append("Camera ").append(camera.getCameraId()).append(":\n")
+                        .append("  Frame available: ").append(frameSize > 0).append("\n")
+                        .append("  Frame size: ").append(frameSize).append(" bytes\n")
+                        .append("  Capture: ").append(camera.getStats()).append("\n");
+        }
+
         String status = "📊 DroneGuard Status:\n" +
-                        "Frame available: " + (frame != null && frame.length > 0) + "\n" +
-                        "Frame size: " + (frame != null ? frame.length : 0) + " bytes\n" +
-                        "Capture: " + captureStats + "\n" +
+                        cameraStatus +
+                        "Inference runs per slot: " + yolo.getSlotStats() + "\n" +
+                        "Async stream sessions: " + asyncStreamer.getSessions()
+                                + " (frames skipped for slow viewers: " + asyncStreamer.getSkippedFrames() + ")\n" +
                         "Memory: " + (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / 1024 / 1024 + "MB\n" +
                         "Timestamp: " + timestamp;
 
@@ -0,0 +1,126 @@
+package com.example.droneguard.diagnostics;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sampled, asynchronous diagnostics for the detection hot path.
+ * Off by default; when enabled, one frame in {@code sampleEvery} gets a {@link FrameTrace}.
+ * Finished traces go through a bounded queue to a background writer, and are dropped
+ * rather than blocking inference if the writer falls behind.
+ * Can be switched at runtime through {@code /api/diagnostics}.
+ */
+@Component
+public class DiagnosticsChannel {
+
+    private final BlockingQueue<String> pending;
+
+    private volatile boolean enabled;
+    private volatile int sampleEvery;
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong traced = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private Thread writer;
+
+    public DiagnosticsChannel(@Value("${droneguard.diagnostics.enabled:false}") boolean enabled,
+                              @Value("${droneguard.diagnostics.sample-every:30}") int sampleEvery,
+                              @Value("${droneguard.diagnostics.queue-size:256}") int queueSize) {
+        this.enabled = enabled;
+        this.sampleEvery = Math.max(1, sampleEvery);
+        this.pending = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+    }
+
+    @PostConstruct
+    public void start() {
+        writer = new Thread(this::writeLoop, "diagnostics-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Start tracing a frame if diagnostics are on and this frame falls on the sampling interval
+     */
+    public FrameTrace startFrame() {
+        if (!enabled) {
+            return FrameTrace.OFF;
+        }
+        long frame = frames.incrementAndGet();
+        if (frame % sampleEvery != 0) {
+            return FrameTrace.OFF;
+        }
+        traced.incrementAndGet();
+        return new FrameTrace(this, frame);
+    }
+
+    void submit(String trace) {
+        if (!pending.offer(trace)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private void writeLoop() {
+        List<String> batch = new ArrayList<>();
+        StringBuilder out = new StringBuilder();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(pending.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            pending.drainTo(batch);
+
+            // One write per batch instead of one per line
+            for (String trace : batch) {
+                out.append(trace);
+            }
+            System.out.print(out);
+            System.out.flush();
+
+            out.setLength(0);
+            batch.clear();
+        }
+    }
+
+    public void configure(Boolean enabled, Integer sampleEvery) {
+        if (sampleEvery != null) {
+            this.sampleEvery = Math.max(1, sampleEvery);
+        }
+        if (enabled != null) {
+            this.enabled = enabled;
+        }
+        System.out.printf("🔬 Diagnostics %s, sampling 1 in %d frames%n",
+                this.enabled ? "enabled" : "disabled", this.sampleEvery);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getSampleEvery() {
+        return sampleEvery;
+    }
+
+    public long getTraced() {
+        return traced.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (writer != null) {
+            writer.interrupt();
+        }
+    }
+}
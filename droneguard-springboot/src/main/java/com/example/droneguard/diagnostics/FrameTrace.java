@@ -0,0 +1,52 @@
+package com.example.droneguard.diagnostics;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Decode trace for a single sampled frame.
+ * Lines are collected in memory and handed to the {@link DiagnosticsChannel} in one piece,
+ * so nothing is written to the console from the hot path. Frames that are not sampled get
+ * {@link #OFF}; callers should check {@link #enabled()} before formatting anything.
+ */
+public class FrameTrace {
+
+    public static final FrameTrace OFF = new FrameTrace(null, 0);
+
+    private static final DateTimeFormatter TS_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS")
+            .withZone(ZoneId.systemDefault());
+
+    private final DiagnosticsChannel channel;
+    private final StringBuilder lines;
+
+    FrameTrace(DiagnosticsChannel channel, long frame) {
+        this.channel = channel;
+        if (channel == null) {
+            this.lines = null;
+        } else {
+            this.lines = new StringBuilder(1024);
+            lines.append("⏰ ").append(TS_FORMAT.format(Instant.now()))
+                    .append(" 🔬 Decode trace for frame #").append(frame).append('\n');
+        }
+    }
+
+    public boolean enabled() {
+        return lines != null;
+    }
+
+    public void log(String format, Object... args) {
+        if (lines != null) {
+            lines.append("   ").append(String.format(format, args)).append('\n');
+        }
+    }
+
+    /**
+     * Hand the collected lines to the asynchronous writer
+     */
+    public void publish() {
+        if (lines != null) {
+            channel.submit(lines.toString());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.droneguard.video;
+
+/**
+ * Decides which frames of a camera get inferred, so inference stays within a budget.
+ * It tracks the smoothed interval between frames entering the pipeline and the smoothed
+ * inference latency, and infers every k-th frame where k is the smallest value that keeps
+ * both {@code latency / (k * interval) <= cpuBudget} and {@code frameRate / k <= targetFps}.
+ * Frames in between reuse the last detections. Disabled, every frame is inferred.
+ */
+public class AdaptiveSkipController {
+
+    private static final double SMOOTHING = 0.1;
+
+    private final boolean enabled;
+    private final double cpuBudget;      // Share of one inference worker this camera may use, 0 = no limit
+    private final double targetFps;      // Max inferences per second, 0 = no limit
+    private final int maxInterval;
+
+    private long lastArrival;
+    private double arrivalIntervalNanos;
+    private volatile double latencyNanos;
+    private volatile int interval = 1;
+    private long frames;
+    private volatile long skipped;
+
+    public AdaptiveSkipController(boolean enabled, double cpuBudget, double targetFps, int maxInterval) {
+        this.enabled = enabled;
+        this.cpuBudget = cpuBudget;
+        this.targetFps = targetFps;
+        this.maxInterval = Math.max(1, maxInterval);
+    }
+
+    /**
+     * Called once per frame, in order, by the stage that feeds inference
+     */
+    public boolean shouldInfer() {
+        if (!enabled) {
+            return true;
+        }
+        long now = System.nanoTime();
+        if (lastArrival != 0) {
+            arrivalIntervalNanos = smooth(arrivalIntervalNanos, now - lastArrival);
+            updateInterval();
+        }
+        lastArrival = now;
+
+        if (frames++ % interval == 0) {
+            return true;
+        }
+        skipped++;
+        return false;
+    }
+
+    /**
+     * Feed back how long an inference took
+     */
+    public void recordLatency(long nanos) {
+        latencyNanos = smooth(latencyNanos, nanos);
+    }
+
+    private void updateInterval() {
+        if (arrivalIntervalNanos <= 0) {
+            return;
+        }
+        int k = 1;
+        if (cpuBudget > 0 && latencyNanos > 0) {
+            k = Math.max(k, (int) Math.ceil(latencyNanos / (cpuBudget * arrivalIntervalNanos)));
+        }
+        if (targetFps > 0) {
+            double frameRate = 1_000_000_000.0 / arrivalIntervalNanos;
+            k = Math.max(k, (int) Math.ceil(frameRate / targetFps - 1e-6));
+        }
+        interval = Math.min(k, maxInterval);
+    }
+
+    private static double smooth(double average, double sample) {
+        return average == 0 ? sample : average * (1 - SMOOTHING) + sample * SMOOTHING;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    public long getSkipped() {
+        return skipped;
+    }
+
+    public double getLatencyMillis() {
+        return latencyNanos / 1_000_000.0;
+    }
+}
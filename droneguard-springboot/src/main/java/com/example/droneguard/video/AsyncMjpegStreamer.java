@@ -0,0 +1,245 @@
+package com.example.droneguard.video;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves MJPEG viewers with servlet async I/O, so a viewer doesn't hold a Tomcat thread.
+ * Each viewer is a {@link WriteListener}: whenever a frame is published or the socket drains,
+ * a small writer pool writes the newest frame while the container says the output is ready.
+ * A slow viewer never queues frames; when it can take the next one it gets the latest frame
+ * and everything in between is skipped.
+ */
+@Component
+public class AsyncMjpegStreamer {
+
+    private static final long KEEP_ALIVE_MS = 1000;
+
+    private final ScheduledExecutorService writers;
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+    private final AtomicLong streamedFrames = new AtomicLong();
+    private final AtomicLong skippedFrames = new AtomicLong();
+
+    public AsyncMjpegStreamer(@Value("${droneguard.stream.writer-threads:2}") int writerThreads,
+                              MeterRegistry meterRegistry) {
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.writers = Executors.newScheduledThreadPool(Math.max(1, writerThreads), task -> {
+            Thread thread = new Thread(task, "stream-writer-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Resend the latest frame to idle viewers now and then, so a closed connection gets noticed
+        // even if the source stalls
+        writers.scheduleWithFixedDelay(this::keepAlive, KEEP_ALIVE_MS, KEEP_ALIVE_MS, TimeUnit.MILLISECONDS);
+
+        FunctionCounter.builder("droneguard.stream.frames.sent", streamedFrames, AtomicLong::get)
+                .description("Frames written to non-blocking MJPEG viewers")
+                .register(meterRegistry);
+        FunctionCounter.builder("droneguard.stream.frames.skipped", skippedFrames, AtomicLong::get)
+                .description("Frames slow non-blocking viewers skipped to catch up with the latest frame")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Switch the request to async mode and stream the broadcaster's frames until the client goes away.
+     * Response headers must already be set.
+     */
+    public void stream(VideoCaptureLoop camera, FrameBroadcaster broadcaster, HttpServletRequest request,
+                       HttpServletResponse response) throws IOException {
+        AsyncContext context = request.startAsync();
+        context.setTimeout(0);
+        Session session = new Session(camera, broadcaster, context, response.getOutputStream());
+        context.addListener(session);
+        sessions.add(session);
+        broadcaster.viewerConnected();
+        broadcaster.subscribe(session);
+        System.out.println("📺 Client connected to async video stream of camera " + camera.getCameraId());
+        // The container calls onWritePossible right away, which sends the first frame
+        session.out.setWriteListener(session);
+    }
+
+    private void keepAlive() {
+        long now = System.nanoTime();
+        for (Session session : sessions) {
+            if (now - session.lastWriteAt > TimeUnit.MILLISECONDS.toNanos(KEEP_ALIVE_MS)) {
+                session.resend = true;
+                session.run();
+            }
+        }
+    }
+
+    public int getSessions() {
+        return sessions.size();
+    }
+
+    public long getSkippedFrames() {
+        return skippedFrames.get();
+    }
+
+    @PreDestroy
+    public void stop() {
+        sessions.forEach(session -> session.close(null));
+        writers.shutdownNow();
+    }
+
+    /**
+     * One viewer. Write requests from the broadcaster, the container and the keep-alive are
+     * collapsed by a counter, so only one writer thread touches the output stream (and the
+     * frame being written) at a time.
+     */
+    private class Session implements Runnable, WriteListener, AsyncListener {
+        private final VideoCaptureLoop camera;
+        private final FrameBroadcaster broadcaster;
+        private final AsyncContext context;
+        private final ServletOutputStream out;
+        private final AtomicInteger requested = new AtomicInteger();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private long sequence = -1;
+        private FrameBroadcaster.Frame current;   // Retained while its part is being written
+        private int segment;
+        private volatile long lastWriteAt = System.nanoTime();
+        private volatile boolean resend;
+
+        Session(VideoCaptureLoop camera, FrameBroadcaster broadcaster, AsyncContext context, ServletOutputStream out) {
+            this.camera = camera;
+            this.broadcaster = broadcaster;
+            this.context = context;
+            this.out = out;
+        }
+
+        /**
+         * Ask for a write; cheap, callable from any thread
+         */
+        @Override
+        public void run() {
+            if (requested.getAndIncrement() == 0) {
+                try {
+                    writers.execute(this::drain);
+                } catch (Exception e) {
+                    // Executor already shut down
+                    close(null);
+                }
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+            do {
+                try {
+                    writeLatest();
+                } catch (IOException | IllegalStateException e) {
+                    close(e);
+                }
+                if (closed.get()) {
+                    releaseCurrent();
+                }
+                missed = requested.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void writeLatest() throws IOException {
+            while (!closed.get() && out.isReady()) {
+                if (current == null) {
+                    FrameBroadcaster.Frame latest = broadcaster.getLatest();
+                    if (latest.sequence <= sequence && !resend) {
+                        return;  // Up to date, the next publish asks again
+                    }
+                    resend = false;
+                    current = broadcaster.retainLatest();
+                    segment = 0;
+                    if (sequence >= 0 && current.sequence > sequence + 1) {
+                        skippedFrames.addAndGet(current.sequence - sequence - 1);
+                    }
+                    sequence = current.sequence;
+                }
+
+                // One piece per isReady() check. The container takes over whatever the socket
+                // doesn't accept right away, so the frame can be released after the last piece
+                current.writeSegment(out, segment++);
+                if (segment == FrameBroadcaster.Frame.segments()) {
+                    releaseCurrent();
+                    lastWriteAt = System.nanoTime();
+                    streamedFrames.incrementAndGet();
+                    if (out.isReady()) {
+                        out.flush();
+                    }
+                }
+            }
+        }
+
+        private void releaseCurrent() {
+            if (current != null) {
+                current.release();
+                current = null;
+            }
+        }
+
+        void close(Throwable cause) {
+            if (closed.compareAndSet(false, true)) {
+                broadcaster.unsubscribe(this);
+                broadcaster.viewerDisconnected();
+                sessions.remove(this);
+                // A writer may still be mid-part; the next drain sees the flag and frees its frame
+                run();
+                System.out.println("📺 Async video stream of camera " + camera.getCameraId() + " ended"
+                        + (cause != null && cause.getMessage() != null ? ": " + cause.getMessage() : ""));
+            }
+            // Also on repeated calls: if the container reports the error after a writer already gave up,
+            // completing here keeps it from dispatching the request to the error page
+            try {
+                context.complete();
+            } catch (IllegalStateException e) {
+                // Already completed
+            }
+        }
+
+        @Override
+        public void onWritePossible() {
+            run();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            close(t);
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            close(null);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            close(null);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            close(event.getThrowable());
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
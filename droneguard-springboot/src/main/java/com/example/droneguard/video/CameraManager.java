@@ -0,0 +1,126 @@
+package com.example.droneguard.video;
+
+import com.example.droneguard.yolo.InferenceScheduler;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Owns one {@link VideoCaptureLoop} per configured camera.
+ * Cameras come from {@code droneguard.cameras} (id + source each); without that list
+ * the single {@code droneguard.source} runs as camera {@value #DEFAULT_CAMERA_ID}.
+ * The first camera is the default one served on the legacy {@code /video/*} endpoints.
+ * Optional per-camera {@code weight} and {@code target-fps} feed the {@link InferenceScheduler}.
+ */
+@Component
+public class CameraManager {
+
+    public static final String DEFAULT_CAMERA_ID = "default";
+
+    public static class CameraConfig {
+        private String id;
+        private String source;
+        private int weight = 1;
+        private Double targetFps;     // null = droneguard.scheduler.target-fps
+
+        public String getId() {
+            return id;
+        }
+
+        public void setId(String id) {
+            this.id = id;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public void setSource(String source) {
+            this.source = source;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        public void setWeight(int weight) {
+            this.weight = weight;
+        }
+
+        public Double getTargetFps() {
+            return targetFps;
+        }
+
+        public void setTargetFps(Double targetFps) {
+            this.targetFps = targetFps;
+        }
+    }
+
+    private final Map<String, VideoCaptureLoop> cameras = new LinkedHashMap<>();
+
+    public CameraManager(Environment environment,
+                         InferenceScheduler inference,
+                         PipelineSettings settings,
+                         MeterRegistry meterRegistry,
+                         @Value("${droneguard.source:0}") String defaultSource) {
+        List<CameraConfig> configs = Binder.get(environment)
+                .bind("droneguard.cameras", Bindable.listOf(CameraConfig.class))
+                .orElse(List.of());
+
+        if (configs.isEmpty()) {
+            inference.registerCamera(DEFAULT_CAMERA_ID, 1, null);
+            cameras.put(DEFAULT_CAMERA_ID,
+                    new VideoCaptureLoop(DEFAULT_CAMERA_ID, defaultSource, inference, settings, meterRegistry));
+        }
+        for (CameraConfig config : configs) {
+            if (config.getId() == null || config.getSource() == null) {
+                throw new IllegalStateException("Every entry in droneguard.cameras needs an id and a source");
+            }
+            String id = config.getId().trim();
+            if (!id.matches("[\\w-]+")) {
+                throw new IllegalStateException("Camera id '" + id + "' must only use letters, digits, '_' and '-'");
+            }
+            if (cameras.containsKey(id)) {
+                throw new IllegalStateException("Duplicate camera id: " + id);
+            }
+            inference.registerCamera(id, config.getWeight(), config.getTargetFps());
+            cameras.put(id, new VideoCaptureLoop(id, config.getSource().trim(), inference, settings, meterRegistry));
+        }
+        System.out.println("📹 Cameras configured: " + cameras.keySet());
+    }
+
+    @PostConstruct
+    public void start() {
+        cameras.values().forEach(VideoCaptureLoop::start);
+    }
+
+    /**
+     * @return the camera, or null if there is no camera with that id
+     */
+    public VideoCaptureLoop getCamera(String cameraId) {
+        return cameras.get(cameraId);
+    }
+
+    public VideoCaptureLoop getDefaultCamera() {
+        return cameras.values().iterator().next();
+    }
+
+    public Collection<VideoCaptureLoop> getCameras() {
+        return cameras.values();
+    }
+
+    @PreDestroy
+    public void stop() {
+        cameras.values().forEach(VideoCaptureLoop::stop);
+    }
+}
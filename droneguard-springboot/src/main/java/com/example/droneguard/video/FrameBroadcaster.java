@@ -0,0 +1,241 @@
+package com.example.droneguard.video;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands each encoded frame of one camera to every MJPEG viewer exactly once.
+ * A published frame gets the next sequence number and its multipart header (boundary,
+ * Content-Type, Content-Length) is built once. The JPEG itself stays in a pooled buffer that
+ * all viewers write from, so a frame costs one copy out of native memory however many viewers
+ * there are. Frames are reference counted: the broadcaster holds one reference to the latest
+ * frame, every viewer holds one while writing, and the buffer goes back to the pool when the
+ * last one is released.
+ * Blocking viewers wait until a frame newer than the one they sent arrives instead of polling;
+ * non-blocking viewers subscribe a callback that runs on every publish.
+ */
+public class FrameBroadcaster {
+
+    public static final String BOUNDARY = "frame";
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final int POOL_SIZE = 8;
+
+    /**
+     * One published frame, shared by all viewers. Its JPEG bytes may only be read while retained.
+     */
+    public static class Frame {
+        public final long sequence;
+        private final byte[] header;
+        private final byte[] data;
+        private final int length;
+        private final FrameBroadcaster pool;   // Null for buffers that aren't pooled
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private Frame(long sequence, byte[] data, int length, FrameBroadcaster pool) {
+            this.sequence = sequence;
+            this.data = data;
+            this.length = length;
+            this.pool = pool;
+            this.header = ("--" + BOUNDARY + "\r\n"
+                    + "Content-Type: image/jpeg\r\n"
+                    + "Content-Length: " + length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        }
+
+        /**
+         * Take a reference
+         * @return false if the frame was already released for good and its buffer may be reused
+         */
+        public boolean retain() {
+            int count;
+            do {
+                count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        public void release() {
+            if (references.decrementAndGet() == 0 && pool != null) {
+                pool.recycle(data);
+            }
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * Number of pieces a multipart part is written in: header, JPEG body, trailing CRLF
+         */
+        static int segments() {
+            return 3;
+        }
+
+        /**
+         * Write one piece of the multipart part, straight from the shared buffers
+         */
+        void writeSegment(OutputStream out, int segment) throws IOException {
+            switch (segment) {
+                case 0 -> out.write(header);
+                case 1 -> out.write(data, 0, length);
+                default -> out.write(CRLF);
+            }
+        }
+
+        /**
+         * Write the complete multipart part
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            for (int segment = 0; segment < segments(); segment++) {
+                writeSegment(out, segment);
+            }
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition published = lock.newCondition();
+    private final AtomicInteger viewers = new AtomicInteger();
+    private final List<Runnable> subscribers = new CopyOnWriteArrayList<>();
+    private final BlockingQueue<byte[]> buffers = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final AtomicLong allocatedBuffers = new AtomicLong();
+    private volatile Frame latest;
+
+    public FrameBroadcaster(byte[] initialFrame) {
+        this.latest = new Frame(0, initialFrame, initialFrame.length, null);
+    }
+
+    /**
+     * A buffer of at least {@code size} bytes to encode the next frame into, reused when possible
+     */
+    public byte[] acquireBuffer(int size) {
+        byte[] buffer = buffers.poll();
+        if (buffer == null || buffer.length < size) {
+            // Some headroom, JPEG sizes drift from frame to frame
+            buffer = new byte[size + size / 4];
+            allocatedBuffers.incrementAndGet();
+        }
+        return buffer;
+    }
+
+    private void recycle(byte[] buffer) {
+        buffers.offer(buffer);
+    }
+
+    /**
+     * Publish a newly encoded frame and wake up every waiting viewer. Called by the encode stage only.
+     * The buffer must come from {@link #acquireBuffer(int)} and is owned by the broadcaster from now on.
+     */
+    public void publish(byte[] buffer, int length) {
+        Frame previous = latest;
+        Frame frame = new Frame(previous.sequence + 1, buffer, length, this);
+        lock.lock();
+        try {
+            latest = frame;
+            published.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        previous.release();
+        for (Runnable subscriber : subscribers) {
+            subscriber.run();
+        }
+    }
+
+    /**
+     * Run {@code onPublish} after every published frame. It runs on the encode stage, so it must only hand off work.
+     */
+    public void subscribe(Runnable onPublish) {
+        subscribers.add(onPublish);
+    }
+
+    public void unsubscribe(Runnable onPublish) {
+        subscribers.remove(onPublish);
+    }
+
+    /**
+     * The latest frame, for its sequence and length only; use {@link #retainLatest()} to read its bytes
+     */
+    public Frame getLatest() {
+        return latest;
+    }
+
+    /**
+     * The latest frame with a reference taken, to be released by the caller
+     */
+    public Frame retainLatest() {
+        while (true) {
+            Frame frame = latest;
+            // Fails only if the frame was replaced and released in the meantime, so the next read is newer
+            if (frame.retain()) {
+                return frame;
+            }
+        }
+    }
+
+    /**
+     * Wait for a frame newer than {@code sequence}
+     * @return the newest frame, retained (release it after writing), or null if none was published within the timeout
+     */
+    public Frame awaitNewer(long sequence, long timeoutMillis) throws InterruptedException {
+        if (latest.sequence <= sequence) {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            lock.lock();
+            try {
+                while (latest.sequence <= sequence) {
+                    if (remaining <= 0) {
+                        return null;
+                    }
+                    remaining = published.awaitNanos(remaining);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return retainLatest();
+    }
+
+    /**
+     * A private copy of the latest JPEG
+     */
+    public byte[] copyLatestJpeg() {
+        Frame frame = retainLatest();
+        try {
+            return Arrays.copyOf(frame.data, frame.length);
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Frame buffers allocated since startup; stays flat once the pool has warmed up
+     */
+    public long getAllocatedBuffers() {
+        return allocatedBuffers.get();
+    }
+
+    public void viewerConnected() {
+        viewers.incrementAndGet();
+    }
+
+    public void viewerDisconnected() {
+        viewers.decrementAndGet();
+    }
+
+    public int getViewers() {
+        return viewers.get();
+    }
+}
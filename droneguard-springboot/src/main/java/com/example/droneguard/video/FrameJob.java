@@ -0,0 +1,42 @@
+package com.example.droneguard.video;
+
+import com.example.droneguard.yolo.Postprocessor;
+import com.example.droneguard.yolo.Preprocessor;
+import org.opencv.core.Mat;
+
+/**
+ * A single captured frame travelling through the pipeline stages.
+ * Each stage fills in its own result and hands the job to the next queue.
+ */
+public class FrameJob {
+    public final long sequence;
+    public final long capturedAtNanos;
+    public final Mat frame;                        // Owned by the job, released after encoding
+
+    public Preprocessor.Input input;               // Set by the preprocess stage (null if the frame is not inferred)
+    public Postprocessor.Detections detections;    // Set by the inference stage (null if YOLO failed)
+
+    public FrameJob(long sequence, Mat frame) {
+        this.sequence = sequence;
+        this.capturedAtNanos = System.nanoTime();
+        this.frame = frame;
+    }
+
+    /**
+     * Return the preprocessed tensor buffer to its pool
+     */
+    public void releaseInput() {
+        if (input != null) {
+            input.release();
+            input = null;
+        }
+    }
+
+    /**
+     * Release native memory held by this job
+     */
+    public void release() {
+        releaseInput();
+        frame.release();
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.droneguard.video;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Single-slot hand-off for latest-frame admission: {@link #put} never waits, a newer job
+ * replaces the one still queued. The displaced job is released and reported to {@code onDropped},
+ * so the consumer always starts on the freshest frame.
+ */
+class LatestFrameQueue extends ArrayBlockingQueue<FrameJob> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient Runnable onDropped;
+
+    LatestFrameQueue(Runnable onDropped) {
+        super(1);
+        this.onDropped = onDropped;
+    }
+
+    @Override
+    public void put(FrameJob job) {
+        while (!offer(job)) {
+            // The consumer may take the old job in between, then the next offer succeeds
+            FrameJob stale = poll();
+            if (stale != null) {
+                stale.release();
+                onDropped.run();
+            }
+        }
+    }
+}
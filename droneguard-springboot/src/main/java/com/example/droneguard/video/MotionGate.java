@@ -0,0 +1,106 @@
+package com.example.droneguard.video;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Cheap change detector in front of the letterbox, so a static scene doesn't cost an inference per frame.
+ * Each frame is shrunk to a small grayscale thumbnail and compared with the thumbnail of the last
+ * inferred frame; inference runs when enough pixels changed or the keep-alive interval ran out.
+ * Not thread-safe, one gate per camera.
+ */
+public class MotionGate {
+
+    private final boolean enabled;
+    private final int width;
+    private final double pixelThreshold;     // Gray level difference that counts as a changed pixel
+    private final double minChanged;         // Share of changed pixels that opens the gate
+    private final long keepAliveNanos;
+
+    private final Mat small = new Mat();
+    private final Mat gray = new Mat();
+    private final Mat reference = new Mat();
+    private final Mat diff = new Mat();
+    private long lastOpenedAt;
+
+    private volatile long passed;
+    private volatile long gated;
+    private volatile long keptAlive;
+    private volatile double lastChange;
+
+    public MotionGate(boolean enabled, int width, double pixelThreshold, double minChanged, long keepAliveMs) {
+        this.enabled = enabled;
+        this.width = Math.max(8, width);
+        this.pixelThreshold = pixelThreshold;
+        this.minChanged = minChanged;
+        this.keepAliveNanos = keepAliveMs * 1_000_000L;
+    }
+
+    /**
+     * @return true if the frame should be inferred
+     */
+    public boolean shouldInfer(Mat frame) {
+        if (!enabled) {
+            return true;
+        }
+
+        int height = Math.max(1, (int) Math.round(frame.rows() * (double) width / frame.cols()));
+        Imgproc.resize(frame, small, new Size(width, height), 0, 0, Imgproc.INTER_AREA);
+        Imgproc.cvtColor(small, gray, Imgproc.COLOR_BGR2GRAY);
+
+        long now = System.nanoTime();
+        boolean open;
+        if (reference.empty() || reference.rows() != gray.rows() || reference.cols() != gray.cols()) {
+            open = true;
+        } else {
+            Core.absdiff(gray, reference, diff);
+            Imgproc.threshold(diff, diff, pixelThreshold, 255, Imgproc.THRESH_BINARY);
+            lastChange = Core.countNonZero(diff) / (double) (diff.rows() * diff.cols());
+            open = lastChange >= minChanged;
+            if (!open && now - lastOpenedAt >= keepAliveNanos) {
+                open = true;
+                keptAlive++;
+            }
+        }
+
+        if (open) {
+            // Compare later frames with the one that was actually inferred, so slow drift adds up
+            gray.copyTo(reference);
+            lastOpenedAt = now;
+            passed++;
+        } else {
+            gated++;
+        }
+        return open;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getPassed() {
+        return passed;
+    }
+
+    public long getGated() {
+        return gated;
+    }
+
+    public long getKeptAlive() {
+        return keptAlive;
+    }
+
+    /**
+     * Share of frames the gate held back since startup
+     */
+    public double getGatedRate() {
+        long total = passed + gated;
+        return total > 0 ? gated / (double) total : 0.0;
+    }
+
+    public double getLastChange() {
+        return lastChange;
+    }
+}
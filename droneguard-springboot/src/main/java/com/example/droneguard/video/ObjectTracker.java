@@ -0,0 +1,351 @@
+package com.example.droneguard.video;
+
+import com.example.droneguard.yolo.Postprocessor;
+
+import java.util.Arrays;
+
+/**
+ * SORT-style multi-object tracker that carries boxes across frames which were not inferred.
+ * Every track runs a constant-velocity Kalman filter on (cx, cy, w, h); fresh detections are
+ * matched to the predicted tracks greedily by IoU, matched tracks are corrected and their
+ * confidence smoothed, unmatched detections start new tracks, and tracks that go unmatched for
+ * longer than {@code maxAgeMs} are dropped. Skipped, gated or dropped frames get the tracks
+ * extrapolated to their capture time, so boxes keep moving between inferences.
+ * Time is measured in nanoseconds, so it works at any inference rate. Disabled, the tracker just
+ * hands back the latest detections. One tracker per camera, methods are synchronized because
+ * several inference workers may call in.
+ */
+public class ObjectTracker {
+
+    private static final int DIMS = 4;                  // cx, cy, w, h
+    private static final double REFERENCE_FPS = 30.0;    // Noise below is given per frame at this rate
+    private static final float POSITION_NOISE = 1f / 20; // Std of position noise, relative to box height
+    private static final float VELOCITY_NOISE = 1f / 160;
+
+    private final boolean enabled;
+    private final float iouThreshold;
+    private final long maxAgeNanos;
+    private final int minHits;
+    private final float smoothing;            // Weight of a new detection's confidence
+
+    // Track state as parallel arrays, valid for [0, count)
+    private int count;
+    private int[] ids = new int[16];
+    private int[] classIds = new int[16];
+    private int[] hits = new int[16];
+    private long[] stateAt = new long[16];    // Capture time the Kalman state refers to
+    private long[] matchedAt = new long[16];
+    private float[] confidence = new float[16];
+    private float[] position = new float[16 * DIMS];
+    private float[] velocity = new float[16 * DIMS];     // Per second
+    private float[] p00 = new float[16 * DIMS];          // Per-dimension (position, velocity) covariance
+    private float[] p01 = new float[16 * DIMS];
+    private float[] p11 = new float[16 * DIMS];
+
+    // Association scratch
+    private long[] pairs = new long[64];
+    private boolean[] trackMatched = new boolean[16];
+    private boolean[] detectionMatched = new boolean[16];
+
+    private Postprocessor.OutputLayout layout;
+    private Postprocessor.Detections latest;
+    private int nextId = 1;
+    private volatile int visible;
+    private volatile long created;
+    private volatile long predicted;
+
+    public ObjectTracker(boolean enabled, double iouThreshold, long maxAgeMs, int minHits, double smoothing) {
+        this.enabled = enabled;
+        this.iouThreshold = (float) iouThreshold;
+        this.maxAgeNanos = maxAgeMs * 1_000_000L;
+        this.minHits = Math.max(1, minHits);
+        this.smoothing = (float) Math.min(1.0, Math.max(0.0, smoothing));
+    }
+
+    /**
+     * Feed the detections of an inferred frame
+     * @return the tracked boxes at that frame's capture time
+     */
+    public synchronized Postprocessor.Detections update(Postprocessor.Detections detections, long capturedAtNanos) {
+        if (!enabled) {
+            latest = detections;
+            return detections;
+        }
+        if (detections.getLayout() != null) {
+            layout = detections.getLayout();
+        }
+
+        for (int t = 0; t < count; t++) {
+            advance(t, capturedAtNanos);
+        }
+        associate(detections, capturedAtNanos);
+
+        int tracks = count;
+        for (int t = 0; t < tracks; t++) {
+            if (trackMatched[t]) {
+                continue;
+            }
+            // Missed in this frame, keep coasting on the prediction until it is too old
+            if (capturedAtNanos - matchedAt[t] > maxAgeNanos) {
+                remove(t);
+                trackMatched[t] = trackMatched[count];
+                t--;
+                tracks--;
+            }
+        }
+        for (int d = 0; d < detections.size(); d++) {
+            if (!detectionMatched[d]) {
+                open(detections, d, capturedAtNanos);
+            }
+        }
+
+        latest = snapshot(capturedAtNanos, false);
+        return latest;
+    }
+
+    /**
+     * Boxes for a frame that was not inferred, extrapolated to its capture time
+     */
+    public synchronized Postprocessor.Detections predict(long capturedAtNanos) {
+        if (!enabled || count == 0) {
+            return latest;
+        }
+        predicted++;
+        return snapshot(capturedAtNanos, true);
+    }
+
+    /**
+     * Kalman predict step: move track t forward to time {@code now}. Frames can reach the
+     * inference stage slightly out of order, the state is never moved back in time.
+     */
+    private void advance(int t, long now) {
+        float dt = Math.max(0, now - stateAt[t]) / 1e9f;
+        if (dt == 0) {
+            return;
+        }
+        float frames = (float) (dt * REFERENCE_FPS);
+        float height = position[t * DIMS + 3];
+        float positionStd = POSITION_NOISE * height;
+        float velocityStd = VELOCITY_NOISE * height * (float) REFERENCE_FPS;
+        float qPosition = positionStd * positionStd * frames;
+        float qVelocity = velocityStd * velocityStd * frames;
+
+        for (int k = t * DIMS, end = k + DIMS; k < end; k++) {
+            position[k] += velocity[k] * dt;
+            // P = F P F^T + Q with F = [[1, dt], [0, 1]]
+            p00[k] += 2 * dt * p01[k] + dt * dt * p11[k] + qPosition;
+            p01[k] += dt * p11[k];
+            p11[k] += qVelocity;
+        }
+        stateAt[t] = now;
+    }
+
+    /**
+     * Kalman update step: correct track t with detection d, one dimension at a time
+     */
+    private void correct(int t, Postprocessor.Detections detections, int d, long now) {
+        float measurementStd = POSITION_NOISE * detections.getHeight(d);
+        float r = measurementStd * measurementStd;
+        int k = t * DIMS;
+        correct(k, detections.getX(d), r);
+        correct(k + 1, detections.getY(d), r);
+        correct(k + 2, detections.getWidth(d), r);
+        correct(k + 3, detections.getHeight(d), r);
+
+        confidence[t] = smoothing * detections.getConfidence(d) + (1 - smoothing) * confidence[t];
+        hits[t]++;
+        matchedAt[t] = now;
+    }
+
+    private void correct(int k, float measured, float r) {
+        float s = p00[k] + r;
+        float gainPosition = p00[k] / s;
+        float gainVelocity = p01[k] / s;
+        float residual = measured - position[k];
+        position[k] += gainPosition * residual;
+        velocity[k] += gainVelocity * residual;
+        p11[k] -= gainVelocity * p01[k];
+        p00[k] *= 1 - gainPosition;
+        p01[k] *= 1 - gainPosition;
+    }
+
+    /**
+     * Greedy IoU matching: best overlapping (track, detection) pairs of the same class first
+     */
+    private void associate(Postprocessor.Detections detections, long now) {
+        int n = detections.size();
+        if (trackMatched.length < count + n) {
+            trackMatched = new boolean[(count + n) * 2];
+        }
+        if (detectionMatched.length < n) {
+            detectionMatched = new boolean[n * 2];
+        }
+        Arrays.fill(trackMatched, 0, count + n, false);
+        Arrays.fill(detectionMatched, 0, n, false);
+
+        // Pack IoU bits above the indices; for non-negative floats the bit order is the numeric order
+        int pairCount = 0;
+        for (int t = 0; t < count; t++) {
+            int k = t * DIMS;
+            for (int d = 0; d < n; d++) {
+                if (classIds[t] != detections.getClassId(d)) {
+                    continue;
+                }
+                float iou = iou(position[k], position[k + 1], position[k + 2], position[k + 3],
+                        detections.getX(d), detections.getY(d), detections.getWidth(d), detections.getHeight(d));
+                if (iou < iouThreshold || iou <= 0) {
+                    continue;
+                }
+                if (pairCount == pairs.length) {
+                    pairs = Arrays.copyOf(pairs, pairs.length * 2);
+                }
+                pairs[pairCount++] = ((long) Float.floatToIntBits(iou) << 32) | ((long) t << 16) | d;
+            }
+        }
+        Arrays.sort(pairs, 0, pairCount);
+
+        for (int i = pairCount - 1; i >= 0; i--) {
+            int t = (int) (pairs[i] >>> 16) & 0xFFFF;
+            int d = (int) pairs[i] & 0xFFFF;
+            if (trackMatched[t] || detectionMatched[d]) {
+                continue;
+            }
+            trackMatched[t] = true;
+            detectionMatched[d] = true;
+            correct(t, detections, d, now);
+        }
+    }
+
+    private void open(Postprocessor.Detections detections, int d, long now) {
+        ensureCapacity(count + 1);
+        int t = count++;
+        ids[t] = nextId++;
+        classIds[t] = detections.getClassId(d);
+        hits[t] = 1;
+        stateAt[t] = now;
+        matchedAt[t] = now;
+        confidence[t] = detections.getConfidence(d);
+
+        float height = detections.getHeight(d);
+        float positionStd = 2 * POSITION_NOISE * height;
+        float velocityStd = 10 * VELOCITY_NOISE * height * (float) REFERENCE_FPS;
+        int k = t * DIMS;
+        position[k] = detections.getX(d);
+        position[k + 1] = detections.getY(d);
+        position[k + 2] = detections.getWidth(d);
+        position[k + 3] = height;
+        for (int j = k; j < k + DIMS; j++) {
+            velocity[j] = 0;
+            p00[j] = positionStd * positionStd;
+            p01[j] = 0;
+            p11[j] = velocityStd * velocityStd;
+        }
+        created++;
+    }
+
+    /**
+     * Drop track t by moving the last track into its place
+     */
+    private void remove(int t) {
+        int last = --count;
+        ids[t] = ids[last];
+        classIds[t] = classIds[last];
+        hits[t] = hits[last];
+        stateAt[t] = stateAt[last];
+        matchedAt[t] = matchedAt[last];
+        confidence[t] = confidence[last];
+        System.arraycopy(position, last * DIMS, position, t * DIMS, DIMS);
+        System.arraycopy(velocity, last * DIMS, velocity, t * DIMS, DIMS);
+        System.arraycopy(p00, last * DIMS, p00, t * DIMS, DIMS);
+        System.arraycopy(p01, last * DIMS, p01, t * DIMS, DIMS);
+        System.arraycopy(p11, last * DIMS, p11, t * DIMS, DIMS);
+    }
+
+    /**
+     * Confirmed, not yet expired tracks as detections, optionally extrapolated to {@code now}
+     */
+    private Postprocessor.Detections snapshot(long now, boolean extrapolate) {
+        int n = 0;
+        for (int t = 0; t < count; t++) {
+            if (isVisible(t, now)) {
+                n++;
+            }
+        }
+        float[] x = new float[n], y = new float[n], w = new float[n], h = new float[n], conf = new float[n];
+        int[] cls = new int[n], track = new int[n];
+        int i = 0;
+        for (int t = 0; t < count; t++) {
+            if (!isVisible(t, now)) {
+                continue;
+            }
+            int k = t * DIMS;
+            float dt = extrapolate ? Math.min(Math.max(0, now - stateAt[t]), maxAgeNanos) / 1e9f : 0;
+            x[i] = position[k] + velocity[k] * dt;
+            y[i] = position[k + 1] + velocity[k + 1] * dt;
+            w[i] = Math.max(1, position[k + 2] + velocity[k + 2] * dt);
+            h[i] = Math.max(1, position[k + 3] + velocity[k + 3] * dt);
+            conf[i] = confidence[t];
+            cls[i] = classIds[t];
+            track[i] = ids[t];
+            i++;
+        }
+        visible = n;
+        return Postprocessor.Detections.tracked(x, y, w, h, conf, cls, track, layout);
+    }
+
+    private boolean isVisible(int t, long now) {
+        return hits[t] >= minHits && now - matchedAt[t] <= maxAgeNanos;
+    }
+
+    private static float iou(float ax, float ay, float aw, float ah, float bx, float by, float bw, float bh) {
+        float left = Math.max(ax - aw / 2, bx - bw / 2);
+        float top = Math.max(ay - ah / 2, by - bh / 2);
+        float right = Math.min(ax + aw / 2, bx + bw / 2);
+        float bottom = Math.min(ay + ah / 2, by + bh / 2);
+        if (right <= left || bottom <= top) {
+            return 0;
+        }
+        float intersection = (right - left) * (bottom - top);
+        return intersection / (aw * ah + bw * bh - intersection);
+    }
+
+    private void ensureCapacity(int tracks) {
+        if (tracks <= ids.length) {
+            return;
+        }
+        int capacity = Math.max(tracks, ids.length * 2);
+        ids = Arrays.copyOf(ids, capacity);
+        classIds = Arrays.copyOf(classIds, capacity);
+        hits = Arrays.copyOf(hits, capacity);
+        stateAt = Arrays.copyOf(stateAt, capacity);
+        matchedAt = Arrays.copyOf(matchedAt, capacity);
+        confidence = Arrays.copyOf(confidence, capacity);
+        position = Arrays.copyOf(position, capacity * DIMS);
+        velocity = Arrays.copyOf(velocity, capacity * DIMS);
+        p00 = Arrays.copyOf(p00, capacity * DIMS);
+        p01 = Arrays.copyOf(p01, capacity * DIMS);
+        p11 = Arrays.copyOf(p11, capacity * DIMS);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Tracks shown in the most recent frame
+     */
+    public int getVisibleTracks() {
+        return visible;
+    }
+
+    public long getCreatedTracks() {
+        return created;
+    }
+
+    /**
+     * Frames that got extrapolated boxes instead of fresh detections
+     */
+    public long getPredictedFrames() {
+        return predicted;
+    }
+}
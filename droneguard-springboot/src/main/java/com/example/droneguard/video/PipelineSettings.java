@@ -0,0 +1,135 @@
+package com.example.droneguard.video;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Frame pipeline tuning from {@code droneguard.pipeline.*}, {@code droneguard.adaptive.*},
+ * {@code droneguard.motion.*} and {@code droneguard.tracker.*}, shared by every camera.
+ * Each camera builds its own queues and stages from these values.
+ */
+@Component
+public class PipelineSettings {
+
+    private final int imgSize;
+    private final int preprocessDepth;
+    private final int inferenceDepth;
+    private final int inferenceWorkers;
+    private final int annotateDepth;
+    private final int encodeDepth;
+    private final boolean latestFrameWins;
+    private final String packing;
+    private final boolean adaptiveSkip;
+    private final double adaptiveCpuBudget;
+    private final double adaptiveTargetFps;
+    private final int adaptiveMaxInterval;
+    private final boolean motionGate;
+    private final int motionWidth;
+    private final double motionPixelThreshold;
+    private final double motionMinChanged;
+    private final long motionKeepAliveMs;
+    private final boolean tracker;
+    private final double trackerIou;
+    private final long trackerMaxAgeMs;
+    private final int trackerMinHits;
+    private final double trackerSmoothing;
+
+    public PipelineSettings(@Value("${droneguard.imgsz}") int imgSize,
+                            @Value("${droneguard.pipeline.preprocess-depth:2}") int preprocessDepth,
+                            @Value("${droneguard.pipeline.inference-depth:2}") int inferenceDepth,
+                            @Value("${droneguard.pipeline.inference-workers:1}") int inferenceWorkers,
+                            @Value("${droneguard.pipeline.annotate-depth:2}") int annotateDepth,
+                            @Value("${droneguard.pipeline.encode-depth:2}") int encodeDepth,
+                            @Value("${droneguard.pipeline.admission:blocking}") String admission,
+                            @Value("${droneguard.preprocess.packing:scalar}") String packing,
+                            @Value("${droneguard.adaptive.enabled:false}") boolean adaptiveSkip,
+                            @Value("${droneguard.adaptive.cpu-budget:0}") double adaptiveCpuBudget,
+                            @Value("${droneguard.adaptive.target-fps:0}") double adaptiveTargetFps,
+                            @Value("${droneguard.adaptive.max-interval:10}") int adaptiveMaxInterval,
+                            @Value("${droneguard.motion.enabled:false}") boolean motionGate,
+                            @Value("${droneguard.motion.width:64}") int motionWidth,
+                            @Value("${droneguard.motion.pixel-threshold:25}") double motionPixelThreshold,
+                            @Value("${droneguard.motion.min-changed:0.002}") double motionMinChanged,
+                            @Value("${droneguard.motion.keep-alive-ms:1000}") long motionKeepAliveMs,
+                            @Value("${droneguard.tracker.enabled:false}") boolean tracker,
+                            @Value("${droneguard.tracker.iou:0.3}") double trackerIou,
+                            @Value("${droneguard.tracker.max-age-ms:1000}") long trackerMaxAgeMs,
+                            @Value("${droneguard.tracker.min-hits:1}") int trackerMinHits,
+                            @Value("${droneguard.tracker.confidence-smoothing:0.5}") double trackerSmoothing) {
+        this.imgSize = imgSize;
+        this.preprocessDepth = preprocessDepth;
+        this.inferenceDepth = inferenceDepth;
+        this.inferenceWorkers = Math.max(1, inferenceWorkers);
+        this.annotateDepth = annotateDepth;
+        this.encodeDepth = encodeDepth;
+        this.latestFrameWins = "latest".equalsIgnoreCase(admission);
+        this.packing = packing;
+        this.adaptiveSkip = adaptiveSkip;
+        this.adaptiveCpuBudget = adaptiveCpuBudget;
+        this.adaptiveTargetFps = adaptiveTargetFps;
+        this.adaptiveMaxInterval = adaptiveMaxInterval;
+        this.motionGate = motionGate;
+        this.motionWidth = motionWidth;
+        this.motionPixelThreshold = motionPixelThreshold;
+        this.motionMinChanged = motionMinChanged;
+        this.motionKeepAliveMs = motionKeepAliveMs;
+        this.tracker = tracker;
+        this.trackerIou = trackerIou;
+        this.trackerMaxAgeMs = trackerMaxAgeMs;
+        this.trackerMinHits = trackerMinHits;
+        this.trackerSmoothing = trackerSmoothing;
+    }
+
+    /**
+     * A fresh frame-skip controller for one camera
+     */
+    public AdaptiveSkipController newSkipController() {
+        return new AdaptiveSkipController(adaptiveSkip, adaptiveCpuBudget, adaptiveTargetFps, adaptiveMaxInterval);
+    }
+
+    /**
+     * A fresh motion gate for one camera
+     */
+    public MotionGate newMotionGate() {
+        return new MotionGate(motionGate, motionWidth, motionPixelThreshold, motionMinChanged, motionKeepAliveMs);
+    }
+
+    /**
+     * A fresh object tracker for one camera
+     */
+    public ObjectTracker newTracker() {
+        return new ObjectTracker(tracker, trackerIou, trackerMaxAgeMs, trackerMinHits, trackerSmoothing);
+    }
+
+    public int getImgSize() {
+        return imgSize;
+    }
+
+    public int getPreprocessDepth() {
+        return preprocessDepth;
+    }
+
+    public int getInferenceDepth() {
+        return inferenceDepth;
+    }
+
+    public int getInferenceWorkers() {
+        return inferenceWorkers;
+    }
+
+    public int getAnnotateDepth() {
+        return annotateDepth;
+    }
+
+    public int getEncodeDepth() {
+        return encodeDepth;
+    }
+
+    public boolean isLatestFrameWins() {
+        return latestFrameWins;
+    }
+
+    public String getPacking() {
+        return packing;
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.droneguard.video;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One stage of the frame pipeline: dedicated worker threads that take jobs
+ * from the stage's bounded input queue, apply a step and hand them to the next queue.
+ * A stage without an output queue is a sink and releases every job it finishes.
+ */
+public class PipelineStage {
+
+    @FunctionalInterface
+    public interface Step {
+        /**
+         * @return true to forward the job to the next stage, false to drop it
+         */
+        boolean apply(FrameJob job) throws Exception;
+    }
+
+    private final String owner;
+    private final String name;
+    private final BlockingQueue<FrameJob> input;
+    private final BlockingQueue<FrameJob> output;
+    private final Step step;
+    private final int workerCount;
+
+    private volatile boolean running = true;
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final List<Thread> workers = new ArrayList<>();
+
+    public PipelineStage(String owner, String name, BlockingQueue<FrameJob> input, BlockingQueue<FrameJob> output,
+                         Step step) {
+        this(owner, name, input, output, step, 1);
+    }
+
+    /**
+     * @param owner       camera the stage belongs to, used in thread names
+     * @param workerCount threads sharing the input queue; with more than one,
+     *                    jobs may reach the next stage out of order
+     */
+    public PipelineStage(String owner, String name, BlockingQueue<FrameJob> input, BlockingQueue<FrameJob> output,
+                         Step step, int workerCount) {
+        this.owner = owner;
+        this.name = name;
+        this.input = input;
+        this.output = output;
+        this.step = step;
+        this.workerCount = Math.max(1, workerCount);
+    }
+
+    public void start() {
+        for (int i = 0; i < workerCount; i++) {
+            String threadName = "video-" + owner + "-" + name;
+            Thread worker = new Thread(this::run, workerCount == 1 ? threadName : threadName + "-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    public void stop() {
+        running = false;
+        workers.forEach(Thread::interrupt);
+        // Free frames still waiting in front of this stage
+        List<FrameJob> pending = new ArrayList<>();
+        input.drainTo(pending);
+        pending.forEach(FrameJob::release);
+    }
+
+    /**
+     * Wait for the workers to finish their current job after {@link #stop}
+     * @return false if a worker was still running when the timeout ran out
+     */
+    public boolean join(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (Thread worker : workers) {
+            worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+            if (worker.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void run() {
+        while (running && !Thread.currentThread().isInterrupted()) {
+            FrameJob job;
+            try {
+                job = input.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            long start = System.nanoTime();
+            boolean forward;
+            try {
+                forward = step.apply(job);
+            } catch (Exception e) {
+                System.err.printf("⚠️ [%s] %s stage failed: %s%n", owner, name, e.getMessage());
+                forward = false;
+            }
+            busyNanos.addAndGet(System.nanoTime() - start);
+            processed.incrementAndGet();
+
+            if (!forward || output == null) {
+                job.release();
+                continue;
+            }
+
+            try {
+                output.put(job);
+            } catch (InterruptedException e) {
+                job.release();
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    /**
+     * Average time spent in this stage's step, in milliseconds
+     */
+    public double getAverageMillis() {
+        long count = processed.get();
+        return count > 0 ? busyNanos.get() / (double) count / 1_000_000.0 : 0.0;
+    }
+
+    public int getQueued() {
+        return input.size();
+    }
+}
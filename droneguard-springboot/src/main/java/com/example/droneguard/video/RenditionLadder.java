@@ -0,0 +1,67 @@
+package com.example.droneguard.video;
+
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The widths and JPEG qualities viewers may ask for with {@code ?w=&q=}, from {@code droneguard.stream.renditions.*}.
+ * Requests snap to the nearest rung, so each camera encodes at most widths x qualities renditions
+ * and viewers asking for similar sizes share one.
+ */
+@Component
+public class RenditionLadder {
+
+    /**
+     * One width/quality combination; width 0 means the source width
+     */
+    public record Rendition(int width, int quality) {
+        @Override
+        public String toString() {
+            return (width > 0 ? width + "w" : "full") + " q" + quality;
+        }
+    }
+
+    private final int[] widths;
+    private final int[] qualities;
+
+    public RenditionLadder(Environment environment) {
+        Binder binder = Binder.get(environment);
+        this.widths = binder.bind("droneguard.stream.renditions.widths", Bindable.listOf(Integer.class))
+                .orElse(List.of(320, 640, 1280)).stream().mapToInt(Integer::intValue).sorted().toArray();
+        this.qualities = binder.bind("droneguard.stream.renditions.qualities", Bindable.listOf(Integer.class))
+                .orElse(List.of(40, 60, 80)).stream().mapToInt(q -> Math.max(1, Math.min(100, q))).sorted().toArray();
+        if (widths.length == 0 || qualities.length == 0) {
+            throw new IllegalStateException("droneguard.stream.renditions needs at least one width and one quality");
+        }
+        System.out.println("🎞️ Stream renditions: widths " + Arrays.toString(widths)
+                + ", qualities " + Arrays.toString(qualities));
+    }
+
+    /**
+     * Snap requested parameters to the ladder
+     * @return null if neither was given, meaning the full-size default stream
+     */
+    public Rendition snap(Integer width, Integer quality) {
+        if (width == null && quality == null) {
+            return null;
+        }
+        int snappedWidth = width != null ? nearest(widths, width) : 0;
+        int snappedQuality = quality != null ? nearest(qualities, quality) : qualities[qualities.length - 1];
+        return new Rendition(snappedWidth, snappedQuality);
+    }
+
+    private static int nearest(int[] rungs, int value) {
+        int best = rungs[0];
+        for (int rung : rungs) {
+            if (Math.abs(rung - value) < Math.abs(best - value)) {
+                best = rung;
+            }
+        }
+        return best;
+    }
+}
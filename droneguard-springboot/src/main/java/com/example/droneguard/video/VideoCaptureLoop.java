@@ -1,43 +1,103 @@
 package com.example.droneguard.video;
 
 import com.example.droneguard.yolo.*;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
 import org.opencv.core.Scalar;
+import org.opencv.core.Size;
 import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
 import org.opencv.videoio.VideoCapture;
 import org.opencv.videoio.Videoio;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.stereotype.Component;
-import jakarta.annotation.PostConstruct;
 import java.io.File;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
-@Component
+/**
+ * Capture and processing pipeline for one camera.
+ * Created and started by {@link CameraManager}; all cameras share the inference backend.
+ */
 public class VideoCaptureLoop {
-    private final YOLOOnnxService yolo;
+    private final String cameraId;
+    private final MeterRegistry meterRegistry;
+    private final InferenceScheduler inference;
     private final String source;
-    private final int imgSize;
+    private final boolean latestFrameWins;
+    private final Preprocessor preprocessor;
+    private final int inferenceWorkers;
+    private final AdaptiveSkipController skipController;
+    private final MotionGate motionGate;
+    private final ObjectTracker tracker;
     
-    // Single atomic reference for thread-safe frame access
-    private final AtomicReference<byte[]> currentFrame = new AtomicReference<>();
+    // Latest encoded frame, handed to every viewer
+    private final FrameBroadcaster broadcaster;
     private final byte[] placeholder;
+    private final MatOfByte encoded = new MatOfByte();   // Reused by the encode stage
+    // Smaller or lower-quality renditions, created when first asked for and only encoded while watched
+    private final Map<RenditionLadder.Rendition, FrameBroadcaster> renditions = new ConcurrentHashMap<>();
+    private final Mat scaled = new Mat();
+    private final MatOfByte renditionEncoded = new MatOfByte();
+    
+    // Bounded hand-off queues in front of each pipeline stage
+    private final LinkedTransferQueue<FrameJob> handoff;
+    private final BlockingQueue<FrameJob> preprocessQueue;
+    private final BlockingQueue<FrameJob> inferenceQueue;
+    private final BlockingQueue<FrameJob> annotateQueue;
+    private final BlockingQueue<FrameJob> encodeQueue;
+    private final List<PipelineStage> stages = new ArrayList<>();
+    private Thread captureThread;
     
     private volatile boolean running = true;
     private volatile long frameCounter = 0;
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private volatile long encodedFrames = 0;
+    private volatile long lastEncodedSequence = 0;
     private volatile long lastLogTime = System.currentTimeMillis();
 
+    private static final long STOP_TIMEOUT_MS = 2000;
+
     static {
         nu.pattern.OpenCV.loadShared();
     }
 
-    public VideoCaptureLoop(YOLOOnnxService yolo,
-                           @Value("${droneguard.source}") String source,
-                           @Value("${droneguard.imgsz}") int imgSize) {
-        this.yolo = yolo;
+    public VideoCaptureLoop(String cameraId,
+                           String source,
+                           InferenceScheduler inference,
+                           PipelineSettings settings,
+                           MeterRegistry meterRegistry) {
+        this.cameraId = cameraId;
+        this.meterRegistry = meterRegistry;
+        this.inference = inference;
         this.source = source;
-        this.imgSize = imgSize;
+        this.latestFrameWins = settings.isLatestFrameWins();
+        // In latest-frame mode the preprocess worker is handed frames directly by the grabber,
+        // so nothing ever waits in front of it and a stale frame can't be queued; in front of
+        // inference a single slot holds the newest preprocessed frame, replacing any older one
+        this.handoff = new LinkedTransferQueue<>();
+        this.preprocessQueue = latestFrameWins ? handoff : new ArrayBlockingQueue<>(settings.getPreprocessDepth());
+        int inferenceDepth = latestFrameWins ? 1 : settings.getInferenceDepth();
+        this.inferenceQueue = latestFrameWins
+                ? new LatestFrameQueue(droppedFrames::incrementAndGet)
+                : new ArrayBlockingQueue<>(inferenceDepth);
+        this.annotateQueue = new ArrayBlockingQueue<>(settings.getAnnotateDepth());
+        this.encodeQueue = new ArrayBlockingQueue<>(settings.getEncodeDepth());
+        this.inferenceWorkers = settings.getInferenceWorkers();
+        this.skipController = settings.newSkipController();
+        this.motionGate = settings.newMotionGate();
+        this.tracker = settings.newTracker();
+        // Inputs in flight: one being filled, those queued for inference, and one per inference worker
+        this.preprocessor = new Preprocessor(settings.getImgSize(),
+                inferenceDepth + 1 + inferenceWorkers, settings.getPacking());
         
         // Create simple placeholder
         Mat greenMat = new Mat(240, 320, CvType.CV_8UC3, new Scalar(0, 255, 0));
@@ -50,29 +110,140 @@ public class VideoCaptureLoop {
         matOfByte.release();
         
         // Set initial frame
-        currentFrame.set(placeholder);
+        broadcaster = new FrameBroadcaster(placeholder);
         
-        System.out.println("✅ VideoCaptureLoop initialized - placeholder size: " + placeholder.length);
+        System.out.println("✅ VideoCaptureLoop [" + cameraId + "] initialized - placeholder size: " + placeholder.length);
     }
 
     public byte[] getLatestJpeg() {
-        byte[] frame = currentFrame.get();
-        return (frame != null) ? frame : placeholder;
+        return broadcaster.copyLatestJpeg();
+    }
+
+    public FrameBroadcaster getBroadcaster() {
+        return broadcaster;
+    }
+
+    /**
+     * Broadcaster of one rendition, the full-size stream for null. A new rendition starts from
+     * the latest frame re-encoded, so its first viewer doesn't wait for the next frame.
+     */
+    public FrameBroadcaster getBroadcaster(RenditionLadder.Rendition rendition) {
+        if (rendition == null) {
+            return broadcaster;
+        }
+        return renditions.computeIfAbsent(rendition, key -> new FrameBroadcaster(transcodeLatest(key)));
+    }
+
+    /**
+     * The latest frame at one rendition: shared if someone streams it, otherwise encoded on demand
+     */
+    public byte[] getLatestJpeg(RenditionLadder.Rendition rendition) {
+        if (rendition == null) {
+            return getLatestJpeg();
+        }
+        FrameBroadcaster active = renditions.get(rendition);
+        if (active != null && active.getViewers() > 0) {
+            return active.copyLatestJpeg();
+        }
+        return transcodeLatest(rendition);
+    }
+
+    /**
+     * Decode the latest published JPEG and encode it at the given rendition.
+     * Only for the occasional request; streamed renditions are encoded from the frame itself.
+     */
+    private byte[] transcodeLatest(RenditionLadder.Rendition rendition) {
+        byte[] latest = broadcaster.copyLatestJpeg();
+        MatOfByte source = new MatOfByte(latest);
+        Mat frame = Imgcodecs.imdecode(source, Imgcodecs.IMREAD_COLOR);
+        Mat resized = new Mat();
+        MatOfByte result = new MatOfByte();
+        try {
+            // Fall back to the full-size frame rather than failing the request
+            return !frame.empty() && encodeRendition(frame, rendition, resized, result) ? result.toArray() : latest;
+        } finally {
+            source.release();
+            frame.release();
+            resized.release();
+            result.release();
+        }
+    }
+
+    private static boolean encodeRendition(Mat frame, RenditionLadder.Rendition rendition, Mat resized,
+                                           MatOfByte result) {
+        Mat source = frame;
+        if (rendition.width() > 0 && rendition.width() < frame.cols()) {
+            int height = Math.max(1, (int) Math.round(frame.rows() * (double) rendition.width() / frame.cols()));
+            Imgproc.resize(frame, resized, new Size(rendition.width(), height), 0, 0, Imgproc.INTER_AREA);
+            source = resized;
+        }
+        MatOfInt params = new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, rendition.quality());
+        try {
+            return Imgcodecs.imencode(".jpg", source, result, params);
+        } finally {
+            params.release();
+        }
+    }
+
+    public String getCameraId() {
+        return cameraId;
     }
 
-    @PostConstruct
     public void start() {
-        System.out.println("🚀 Starting single-threaded video processing...");
-        
-        Thread captureThread = new Thread(this::captureAndProcess, "video-main");
+        System.out.println("🚀 Starting pipelined video processing for camera " + cameraId + " (admission: "
+                + (latestFrameWins ? "latest frame" : "blocking") + ")...");
+
+        registerMeters();
+
+        stages.add(new PipelineStage(cameraId, "preprocess", preprocessQueue, inferenceQueue, this::preprocess));
+        stages.add(new PipelineStage(cameraId, "inference", inferenceQueue, annotateQueue, this::infer, inferenceWorkers));
+        stages.add(new PipelineStage(cameraId, "annotate", annotateQueue, encodeQueue, this::annotate));
+        stages.add(new PipelineStage(cameraId, "encode", encodeQueue, null, this::encode));
+        stages.forEach(PipelineStage::start);
+
+        // A platform thread even with droneguard.threads.virtual: VideoCapture.read() blocks inside
+        // native code, which would pin a virtual thread's carrier for the whole frame interval
+        captureThread = new Thread(this::captureLoop, "video-" + cameraId + "-capture");
         captureThread.setDaemon(true);
         captureThread.start();
     }
 
-    private void captureAndProcess() {
+    /**
+     * Meters are registered on start, once the loop is fully constructed
+     */
+    private void registerMeters() {
+        FunctionCounter.builder("droneguard.frames.captured", this, loop -> loop.frameCounter)
+                .description("Frames grabbed from the video source")
+                .tag("camera", cameraId)
+                .register(meterRegistry);
+        FunctionCounter.builder("droneguard.frames.dropped", droppedFrames, AtomicLong::get)
+                .description("Frames skipped because the pipeline was still busy with a previous frame")
+                .tag("camera", cameraId)
+                .register(meterRegistry);
+        FunctionCounter.builder("droneguard.frames.skipped", skipController, AdaptiveSkipController::getSkipped)
+                .description("Frames not inferred by the adaptive skip controller")
+                .tag("camera", cameraId)
+                .register(meterRegistry);
+        FunctionCounter.builder("droneguard.frames.gated", motionGate, MotionGate::getGated)
+                .description("Frames not inferred because the motion gate saw no change")
+                .tag("camera", cameraId)
+                .register(meterRegistry);
+        FunctionCounter.builder("droneguard.tracks.created", tracker, ObjectTracker::getCreatedTracks)
+                .description("Object tracks started by the tracker")
+                .tag("camera", cameraId)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Capture stage: reads frames from the source and feeds the pipeline.
+     * In blocking mode it waits when the preprocess queue is full, so the slowest stage sets the pace.
+     * In latest-frame mode it keeps grabbing and only decodes a frame when the preprocess worker
+     * is idle, dropping everything else so inference always sees the freshest image.
+     */
+    private void captureLoop() {
         VideoCapture cap = null;
-        Mat frame = new Mat();
         boolean isCamera = source.matches("\\d+");
+        boolean isLive = isCamera || isStream(source);
         
         try {
             // Initialize capture
@@ -82,92 +253,163 @@ public class VideoCaptureLoop {
                 return;
             }
             
+            if (latestFrameWins && isLive) {
+                cap.set(Videoio.CAP_PROP_BUFFERSIZE, 1); // Don't let the driver queue stale frames
+            }
+            
             System.out.println("✅ Video capture started successfully");
+
+            // Cameras and streams are paced by the sender, files are played back at their native rate
+            long frameIntervalNanos = 0;
+            if (!isLive) {
+                double fps = cap.get(Videoio.CAP_PROP_FPS);
+                frameIntervalNanos = (long) (1_000_000_000L / (fps > 0 ? fps : 30.0));
+            }
+            long nextFrameAt = System.nanoTime();
             
-            // Main processing loop - everything in one thread to avoid synchronization issues
             while (running && !Thread.currentThread().isInterrupted()) {
-                
-                // 1. Capture frame
-                if (!cap.read(frame) || frame.empty()) {
-                    if (isCamera) {
-                        System.out.println("⚠️ Camera frame read failed, retrying...");
+                if (!cap.grab()) {
+                    if (isLive) {
+                        System.out.println("⚠️ Camera " + cameraId + " frame read failed, retrying...");
                         Thread.sleep(50);
-                        continue;
                     } else {
                         // Restart video file
                         cap.set(Videoio.CAP_PROP_POS_FRAMES, 0);
-                        continue;
                     }
+                    continue;
                 }
-                
                 frameCounter++;
-                
-                // 2. Create working copy for processing
-                Mat workingFrame = null;
-                byte[] jpegBytes = null;
-                
-                try {
-                    workingFrame = frame.clone();
-                    
-                    // 3. YOLO processing (with error handling)
-                    try {
-                        Preprocessor.Input input = Preprocessor.letterbox(frame, imgSize);
-                        Postprocessor.Detections detections = yolo.infer(input);
-                        detections.drawOn(workingFrame);
-                    } catch (Exception e) {
-                        // If YOLO fails, continue with raw frame
-                        System.err.println("⚠️ YOLO failed: " + e.getMessage());
-                    }
-                    
-                    // 4. Encode to JPEG
-                    MatOfByte matOfByte = new MatOfByte();
-                    if (Imgcodecs.imencode(".jpg", workingFrame, matOfByte)) {
-                        jpegBytes = matOfByte.toArray();
+
+                if (latestFrameWins && !handoff.hasWaitingConsumer()) {
+                    // Pipeline still busy with an earlier frame, skip decoding this one
+                    droppedFrames.incrementAndGet();
+                } else {
+                    Mat frame = new Mat();
+                    if (cap.retrieve(frame) && !frame.empty()) {
+                        FrameJob job = new FrameJob(frameCounter, frame);
+                        if (!latestFrameWins) {
+                            preprocessQueue.put(job);
+                        } else if (!handoff.tryTransfer(job)) {
+                            job.release();
+                            droppedFrames.incrementAndGet();
+                        }
                     } else {
-                        System.err.println("⚠️ JPEG encoding failed");
-                    }
-                    matOfByte.release();
-                    
-                } finally {
-                    // Always clean up working frame
-                    if (workingFrame != null) {
-                        workingFrame.release();
+                        frame.release();
                     }
                 }
-                
-                // 5. Update current frame atomically
-                if (jpegBytes != null && jpegBytes.length > 0) {
-                    currentFrame.set(jpegBytes);
-                }
-                
-                // 6. Logging (every 5 seconds)
-                long currentTime = System.currentTimeMillis();
-                if (currentTime - lastLogTime > 5000) {
-                    System.out.printf("📽️ Processed %d frames, latest: %d bytes%n", 
-                                    frameCounter, jpegBytes != null ? jpegBytes.length : 0);
-                    lastLogTime = currentTime;
+
+                if (frameIntervalNanos > 0) {
+                    nextFrameAt += frameIntervalNanos;
+                    long wait = nextFrameAt - System.nanoTime();
+                    if (wait > 0) {
+                        Thread.sleep(wait / 1_000_000L, (int) (wait % 1_000_000L));
+                    } else {
+                        nextFrameAt = System.nanoTime();
+                    }
                 }
-                
-                // 7. Frame rate control (~30 FPS)
-                Thread.sleep(33);
             }
             
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
-            System.out.println("🛑 Video processing interrupted");
+            System.out.println("🛑 Video processing interrupted for camera " + cameraId);
         } catch (Exception e) {
-            System.err.println("❌ Fatal error in video processing: " + e.getMessage());
+            System.err.println("❌ Fatal error in video processing for camera " + cameraId + ": " + e.getMessage());
             e.printStackTrace();
         } finally {
             // Cleanup
             running = false;
             if (cap != null && cap.isOpened()) {
                 cap.release();
-                System.out.println("✅ Video capture released");
+                System.out.println("✅ Video capture released for camera " + cameraId);
             }
-            frame.release();
-            System.out.printf("✅ Video processing ended after %d frames%n", frameCounter);
+            System.out.printf("✅ Video capture [%s] ended after %d frames%n", cameraId, frameCounter);
+        }
+    }
+
+    private boolean preprocess(FrameJob job) throws InterruptedException {
+        // Frames over the camera's target FPS, or that the skip controller or the motion gate pass over,
+        // are not letterboxed or inferred at all
+        if (inference.shouldAdmit(cameraId, System.nanoTime())
+                && skipController.shouldInfer() && motionGate.shouldInfer(job.frame)) {
+            job.input = preprocessor.letterbox(job.frame);
+        }
+        return true;
+    }
+
+    private boolean infer(FrameJob job) {
+        if (job.input == null) {
+            job.detections = tracker.predict(job.capturedAtNanos);
+            return true;
+        }
+        try {
+            long start = System.nanoTime();
+            Postprocessor.Detections detections = inference.submit(cameraId, job.input).get();
+            if (detections != null) {
+                // Only real inferences count; expired frames come back without running and
+                // would make the controller think inference is cheaper than it is
+                skipController.recordLatency(System.nanoTime() - start);
+                job.detections = tracker.update(detections, job.capturedAtNanos);
+            } else {
+                // Frames that expired in the scheduler show the tracked (or most recent) boxes
+                job.detections = tracker.predict(job.capturedAtNanos);
+            }
+        } catch (Exception e) {
+            // If YOLO fails, continue with raw frame
+            System.err.println("⚠️ YOLO failed: " + e.getMessage());
+        } finally {
+            job.releaseInput();
+        }
+        return true;
+    }
+
+    private boolean annotate(FrameJob job) {
+        if (job.detections != null) {
+            job.detections.drawOn(job.frame);
+        }
+        return true;
+    }
+
+    private boolean encode(FrameJob job) {
+        // Parallel inference workers can finish out of order, never step back to an older frame
+        if (job.sequence < lastEncodedSequence) {
+            return false;
+        }
+        lastEncodedSequence = job.sequence;
+
+        int jpegLength = 0;
+        if (Imgcodecs.imencode(".jpg", job.frame, encoded)) {
+            jpegLength = (int) encoded.total();
+        } else {
+            System.err.println("⚠️ JPEG encoding failed");
         }
+
+        // Copy out of native memory once, into a pooled buffer all viewers share
+        if (jpegLength > 0) {
+            byte[] buffer = broadcaster.acquireBuffer(jpegLength);
+            encoded.get(0, 0, buffer);
+            broadcaster.publish(buffer, jpegLength);
+            encodedFrames++;
+        }
+
+        // Renditions nobody watches cost nothing
+        for (Map.Entry<RenditionLadder.Rendition, FrameBroadcaster> entry : renditions.entrySet()) {
+            FrameBroadcaster rendition = entry.getValue();
+            if (rendition.getViewers() > 0 && encodeRendition(job.frame, entry.getKey(), scaled, renditionEncoded)) {
+                int length = (int) renditionEncoded.total();
+                byte[] buffer = rendition.acquireBuffer(length);
+                renditionEncoded.get(0, 0, buffer);
+                rendition.publish(buffer, length);
+            }
+        }
+
+        // Logging (every 5 seconds)
+        long currentTime = System.currentTimeMillis();
+        if (currentTime - lastLogTime > 5000) {
+            System.out.printf("📽️ [%s] Processed %d frames, latest: %d bytes%n",
+                            cameraId, encodedFrames, jpegLength);
+            lastLogTime = currentTime;
+        }
+        return true;
     }
     
     private VideoCapture initializeCapture() {
@@ -186,14 +428,14 @@ public class VideoCaptureLoop {
                     System.out.printf("✅ Camera opened: %.0fx%.0f%n", width, height);
                     return cap;
                 }
-            } else if (source.startsWith("http://") || source.startsWith("https://")) {
-                // HTTP stream
-                System.out.println("🌐 Opening HTTP stream: " + source);
+            } else if (isStream(source)) {
+                // HTTP / RTSP stream
+                System.out.println("🌐 Opening network stream: " + source);
                 cap.open(source);
                 cap.set(Videoio.CAP_PROP_BUFFERSIZE, 1); // Reduce latency
                 
                 if (cap.isOpened()) {
-                    System.out.println("✅ HTTP stream opened successfully");
+                    System.out.println("✅ Network stream opened successfully");
                     return cap;
                 }
             } else {
@@ -227,14 +469,66 @@ public class VideoCaptureLoop {
         }
     }
 
+    private static boolean isStream(String source) {
+        return source.startsWith("http://") || source.startsWith("https://") || source.startsWith("rtsp://");
+    }
+
     public void stop() {
-        System.out.println("🛑 Stopping video capture...");
+        System.out.println("🛑 Stopping video capture for camera " + cameraId + "...");
         running = false;
+        try {
+            // No new frames once the grabber is gone, then let every stage finish its current frame
+            if (captureThread != null) {
+                captureThread.interrupt();
+                captureThread.join(STOP_TIMEOUT_MS);
+            }
+            stages.forEach(PipelineStage::stop);
+            boolean stopped = true;
+            for (PipelineStage stage : stages) {
+                stopped &= stage.join(STOP_TIMEOUT_MS);
+            }
+            // The letterbox canvas is only safe to free once no preprocess worker can touch it
+            if (stopped) {
+                preprocessor.release();
+            } else {
+                System.err.println("⚠️ Pipeline for camera " + cameraId + " did not stop in time, preprocessor not released");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
     
     public String getStats() {
         long timeSinceLastLog = System.currentTimeMillis() - lastLogTime;
-        return String.format("Running: %s, Frames: %d, Last activity: %dms ago", 
-                           running, frameCounter, timeSinceLastLog);
+        StringBuilder stageStats = new StringBuilder();
+        for (PipelineStage stage : stages) {
+            stageStats.append(String.format(", %s: %.1fms (queued %d)",
+                    stage.getName(), stage.getAverageMillis(), stage.getQueued()));
+        }
+        String skipStats = skipController.isEnabled()
+                ? String.format(", Adaptive: every %d frame(s), %.1fms latency, skipped %d",
+                        skipController.getInterval(), skipController.getLatencyMillis(), skipController.getSkipped())
+                : "";
+        String motionStats = motionGate.isEnabled()
+                ? String.format(", Motion gate: gated %.1f%% (%d), keep-alive %d, last change %.2f%%",
+                        motionGate.getGatedRate() * 100, motionGate.getGated(), motionGate.getKeptAlive(),
+                        motionGate.getLastChange() * 100)
+                : "";
+        StringBuilder renditionStats = new StringBuilder();
+        renditions.forEach((rendition, renditionBroadcaster) -> {
+            if (renditionBroadcaster.getViewers() > 0) {
+                renditionStats.append(renditionStats.isEmpty() ? ", Renditions: " : ", ")
+                        .append(rendition).append(" (").append(renditionBroadcaster.getViewers()).append(" viewers)");
+            }
+        });
+        String trackerStats = tracker.isEnabled()
+                ? String.format(", Tracker: %d visible, %d created, %d predicted frames",
+                        tracker.getVisibleTracks(), tracker.getCreatedTracks(), tracker.getPredictedFrames())
+                : "";
+        return String.format("Running: %s, Frames: %d, Dropped: %d, Encoded: %d, Viewers: %d, Frame buffers: %d, Last activity: %dms ago%s, Inference: %s%s%s%s%s", 
+                           running, frameCounter, droppedFrames.get(), encodedFrames, broadcaster.getViewers(),
+                           broadcaster.getAllocatedBuffers(), timeSinceLastLog, stageStats,
+                           inference.getCameraStats(cameraId), skipStats, motionStats, trackerStats,
+                           renditionStats);
     }
 }
\ No newline at end of file
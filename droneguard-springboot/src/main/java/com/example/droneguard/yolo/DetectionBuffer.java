@@ -0,0 +1,170 @@
+package com.example.droneguard.yolo;
+
+import com.example.droneguard.diagnostics.FrameTrace;
+
+import java.util.Arrays;
+
+/**
+ * Reusable struct-of-arrays store for the candidates of one frame.
+ * Boxes live in parallel primitive arrays that only grow, so decoding, sorting and NMS
+ * allocate nothing per candidate; NMS itself is delegated to an {@link NmsStrategy}.
+ * One buffer belongs to one inference slot and is cleared at the start of every frame;
+ * it is not thread-safe.
+ */
+public class DetectionBuffer {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Bounding boxes (center x, y, width, height) in original image pixels
+    float[] x, y, w, h;
+    float[] confidence;
+    int[] classId;
+    int size;
+
+    // Scratch space for sorting and suppression, shared with the NmsStrategy implementations
+    private long[] sortKeys;
+    int[] order;               // Candidate indices by descending confidence
+    boolean[] suppressed;
+    int[] kept;                // Survivors, written by the strategy in output order
+    float[] left, top, right, bottom, area;
+
+    // Decoder scratch, one entry per anchor: best class score and anchors above threshold
+    float[] scores = new float[0];
+    float[] classScores = new float[0];
+    int[] hits = new int[0];
+
+    public DetectionBuffer() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void add(float cx, float cy, float width, float height, float conf, int cls) {
+        if (size == x.length) {
+            allocate(size * 2);
+        }
+        x[size] = cx;
+        y[size] = cy;
+        w[size] = width;
+        h[size] = height;
+        confidence[size] = conf;
+        classId[size] = cls;
+        size++;
+    }
+
+    void ensureAnchorCapacity(int anchors) {
+        if (scores.length < anchors) {
+            scores = new float[anchors];
+            classScores = new float[anchors];
+            hits = new int[anchors];
+        }
+    }
+
+    /**
+     * Run NMS over the buffered candidates.
+     * Returns a compact copy of the survivors, so the buffer can be reused right away.
+     */
+    public Postprocessor.Detections suppress(NmsStrategy nms, float iouThreshold, Postprocessor.OutputLayout layout,
+                                             FrameTrace trace) {
+        if (size == 0) {
+            return Postprocessor.Detections.EMPTY;
+        }
+
+        sortByConfidence();
+        computeCorners();
+        int keptCount = nms.select(this, iouThreshold, trace);
+        return Postprocessor.Detections.copyOf(this, kept, keptCount, layout);
+    }
+
+    /**
+     * Fill {@code order} with candidate indices by descending confidence.
+     * Confidences are positive, so their raw float bits sort like the values themselves;
+     * each key packs those bits above the inverted index, which keeps ties in insertion order.
+     */
+    void sortByConfidence() {
+        for (int i = 0; i < size; i++) {
+            sortKeys[i] = ((long) Float.floatToRawIntBits(confidence[i]) << 32) | (size - 1 - i);
+        }
+        Arrays.sort(sortKeys, 0, size);
+        for (int i = 0; i < size; i++) {
+            order[i] = size - 1 - (int) sortKeys[size - 1 - i];
+        }
+    }
+
+    /**
+     * Corners and areas once per frame, instead of once per IoU
+     */
+    void computeCorners() {
+        for (int i = 0; i < size; i++) {
+            float halfW = w[i] / 2;
+            float halfH = h[i] / 2;
+            left[i] = x[i] - halfW;
+            top[i] = y[i] - halfH;
+            right[i] = x[i] + halfW;
+            bottom[i] = y[i] + halfH;
+            area[i] = w[i] * h[i];
+        }
+    }
+
+    /**
+     * Shift every box sideways by its class id times the horizontal extent of all boxes,
+     * so boxes of different classes can never overlap. The extent runs from the leftmost
+     * left edge, which is negative for boxes hanging over the frame's left border.
+     */
+    void separateClasses() {
+        float minLeft = Float.MAX_VALUE;
+        float maxRight = -Float.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            minLeft = Math.min(minLeft, left[i]);
+            maxRight = Math.max(maxRight, right[i]);
+        }
+        float extent = maxRight - minLeft + 1;
+        for (int i = 0; i < size; i++) {
+            float shift = classId[i] * extent;
+            left[i] += shift;
+            right[i] += shift;
+        }
+    }
+
+    /**
+     * Intersection over Union of two buffered boxes, from the precomputed corners
+     */
+    float iou(int a, int b) {
+        float overlapW = Math.min(right[a], right[b]) - Math.max(left[a], left[b]);
+        float overlapH = Math.min(bottom[a], bottom[b]) - Math.max(top[a], top[b]);
+        if (overlapW <= 0 || overlapH <= 0) return 0.0f;
+
+        float intersection = overlapW * overlapH;
+        float union = area[a] + area[b] - intersection;
+
+        return union > 0 ? intersection / union : 0.0f;
+    }
+
+    private void allocate(int capacity) {
+        x = grow(x, capacity);
+        y = grow(y, capacity);
+        w = grow(w, capacity);
+        h = grow(h, capacity);
+        confidence = grow(confidence, capacity);
+        classId = classId == null ? new int[capacity] : Arrays.copyOf(classId, capacity);
+        sortKeys = new long[capacity];
+        order = new int[capacity];
+        suppressed = new boolean[capacity];
+        kept = new int[capacity];
+        left = new float[capacity];
+        top = new float[capacity];
+        right = new float[capacity];
+        bottom = new float[capacity];
+        area = new float[capacity];
+    }
+
+    private static float[] grow(float[] array, int capacity) {
+        return array == null ? new float[capacity] : Arrays.copyOf(array, capacity);
+    }
+}
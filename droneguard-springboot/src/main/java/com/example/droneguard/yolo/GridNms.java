@@ -0,0 +1,101 @@
+package com.example.droneguard.yolo;
+
+import com.example.droneguard.diagnostics.FrameTrace;
+
+import java.util.Arrays;
+
+/**
+ * Greedy NMS with the pairwise scan pruned by a uniform grid.
+ * Cells are at least as large as the biggest box, so two boxes can only overlap if their
+ * centers sit in the same or neighbouring cells; a kept box only tests those nine cells.
+ * Keeps exactly the same boxes as {@link NmsStrategy.Greedy}, and pays off once
+ * candidates run into the hundreds on dense, low-threshold frames.
+ */
+class GridNms implements NmsStrategy {
+
+    private static final int MAX_CELLS_PER_AXIS = 64;
+
+    private int[] cellHead = new int[0];
+    private int[] next = new int[0];
+    private int[] rank = new int[0];
+
+    @Override
+    public int select(DetectionBuffer c, float iouThreshold, FrameTrace trace) {
+        int size = c.size;
+        if (next.length < size) {
+            next = new int[c.x.length];
+            rank = new int[c.x.length];
+        }
+
+        // Grid over the candidates' extent, cells sized to the largest box
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        float cell = 1;
+        for (int i = 0; i < size; i++) {
+            float cx = (c.left[i] + c.right[i]) / 2;
+            float cy = (c.top[i] + c.bottom[i]) / 2;
+            minX = Math.min(minX, cx);
+            minY = Math.min(minY, cy);
+            maxX = Math.max(maxX, cx);
+            maxY = Math.max(maxY, cy);
+            cell = Math.max(cell, Math.max(c.right[i] - c.left[i], c.bottom[i] - c.top[i]));
+        }
+        cell = Math.max(cell, Math.max(maxX - minX, maxY - minY) / MAX_CELLS_PER_AXIS);
+        int cols = (int) ((maxX - minX) / cell) + 1;
+        int rows = (int) ((maxY - minY) / cell) + 1;
+        if (cellHead.length < cols * rows) {
+            cellHead = new int[cols * rows];
+        }
+        Arrays.fill(cellHead, 0, cols * rows, -1);
+
+        // Bucket in reverse rank order, so each cell lists its boxes best first
+        int[] order = c.order;
+        for (int r = size - 1; r >= 0; r--) {
+            int i = order[r];
+            rank[i] = r;
+            int cellIndex = cellOf(c, i, minX, minY, cell, cols);
+            next[i] = cellHead[cellIndex];
+            cellHead[cellIndex] = i;
+        }
+
+        boolean[] suppressed = c.suppressed;
+        Arrays.fill(suppressed, 0, size, false);
+        int keptCount = 0;
+
+        for (int r = 0; r < size; r++) {
+            int a = order[r];
+            if (suppressed[a]) continue;
+
+            c.kept[keptCount++] = a;
+            if (trace.enabled()) {
+                trace.log("✅ Kept detection: conf=%.3f, box=(%.1f,%.1f,%.1f,%.1f)",
+                    c.confidence[a], c.x[a], c.y[a], c.w[a], c.h[a]);
+            }
+
+            int cellIndex = cellOf(c, a, minX, minY, cell, cols);
+            int col = cellIndex % cols;
+            int row = cellIndex / cols;
+            for (int ny = Math.max(0, row - 1); ny <= Math.min(rows - 1, row + 1); ny++) {
+                for (int nx = Math.max(0, col - 1); nx <= Math.min(cols - 1, col + 1); nx++) {
+                    for (int b = cellHead[ny * cols + nx]; b != -1; b = next[b]) {
+                        if (rank[b] <= r || suppressed[b]) continue;
+
+                        float iou = c.iou(a, b);
+                        if (iou > iouThreshold) {
+                            suppressed[b] = true;
+                            if (trace.enabled()) {
+                                trace.log("🚫 Suppressed detection: conf=%.3f, IoU=%.3f", c.confidence[b], iou);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return keptCount;
+    }
+
+    private static int cellOf(DetectionBuffer c, int i, float minX, float minY, float cell, int cols) {
+        int col = (int) (((c.left[i] + c.right[i]) / 2 - minX) / cell);
+        int row = (int) (((c.top[i] + c.bottom[i]) / 2 - minY) / cell);
+        return row * cols + col;
+    }
+}
@@ -0,0 +1,362 @@
+package com.example.droneguard.yolo;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shared front-end for {@link YOLOOnnxService}: schedules frames from all cameras and micro-batches them.
+ * Every camera queues in its own lane. Dispatcher threads pick lanes by smooth weighted round-robin,
+ * where a camera's weight is doubled (by {@code droneguard.scheduler.boost-factor}) while it has
+ * recently seen a drone. Up to {@code droneguard.batch.max-size} frames collected within
+ * {@code droneguard.batch.max-wait-ms} run as one [N,3,S,S] inference.
+ * <p>
+ * Callers ask {@link #shouldAdmit} before preprocessing a frame, so frames arriving faster than a
+ * camera's target FPS are turned away before any work is spent on them. Frames that waited longer
+ * than {@code droneguard.scheduler.deadline-ms} are dropped and complete with {@code null},
+ * meaning "reuse the previous detections".
+ * With a single camera and a max batch size of 1 frames are inferred directly on the caller's thread.
+ */
+@Service
+public class InferenceScheduler {
+
+    private record Request(Lane lane, Preprocessor.Input input, long submittedAt,
+                           CompletableFuture<Postprocessor.Detections> result) {}
+
+    /**
+     * Queue and scheduling state of one camera
+     */
+    private static class Lane {
+        final String cameraId;
+        final int weight;
+        final long minIntervalNanos;                   // 0 = no FPS cap
+        final ArrayDeque<Request> queue = new ArrayDeque<>();   // Guarded by the scheduler lock
+        int currentWeight;                             // Smooth weighted round-robin state
+
+        volatile long lastAdmittedAt;
+        volatile long lastDetectionAt;                 // 0 = no drone seen yet
+        volatile long lastCompletedAt;
+        volatile double intervalNanos;                 // Smoothed time between inferences
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong skipped = new AtomicLong();   // Over the target FPS
+        final AtomicLong expired = new AtomicLong();   // Past the deadline
+
+        Lane(String cameraId, int weight, double targetFps) {
+            this.cameraId = cameraId;
+            this.weight = Math.max(1, weight);
+            this.minIntervalNanos = targetFps > 0 ? (long) (1_000_000_000L / targetFps) : 0;
+        }
+    }
+
+    private final YOLOOnnxService yolo;
+    private final MeterRegistry meterRegistry;
+    private final long maxWaitNanos;
+    private final long deadlineNanos;
+    private final double defaultTargetFps;
+    private final int boostFactor;
+    private final long boostWindowNanos;
+
+    private final Map<String, Lane> lanesById = new ConcurrentHashMap<>();
+    private final List<Lane> lanes = new CopyOnWriteArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private int queued;                                // Guarded by lock
+
+    private volatile boolean running = true;
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong batchedFrames = new AtomicLong();
+    private final List<Thread> dispatchers = new ArrayList<>();
+    private volatile boolean dispatching = false;
+
+    public InferenceScheduler(YOLOOnnxService yolo,
+                              MeterRegistry meterRegistry,
+                              @Value("${droneguard.batch.max-wait-ms:5}") long maxWaitMs,
+                              @Value("${droneguard.scheduler.deadline-ms:500}") long deadlineMs,
+                              @Value("${droneguard.scheduler.target-fps:0}") double defaultTargetFps,
+                              @Value("${droneguard.scheduler.boost-factor:2}") int boostFactor,
+                              @Value("${droneguard.scheduler.boost-window-ms:3000}") long boostWindowMs) {
+        this.yolo = yolo;
+        this.meterRegistry = meterRegistry;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+        this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(deadlineMs);
+        this.defaultTargetFps = defaultTargetFps;
+        this.boostFactor = Math.max(1, boostFactor);
+        this.boostWindowNanos = TimeUnit.MILLISECONDS.toNanos(boostWindowMs);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (yolo.getMaxBatchSize() > 1) {
+            startDispatchers();
+        }
+    }
+
+    /**
+     * Add a camera lane and export its metrics.
+     * @param weight    share of inference time relative to other cameras
+     * @param targetFps max inferences per second for this camera, null for the default, 0 for no cap
+     */
+    public void registerCamera(String cameraId, int weight, Double targetFps) {
+        Lane lane = new Lane(cameraId, weight, targetFps != null ? targetFps : defaultTargetFps);
+        if (lanesById.putIfAbsent(cameraId, lane) != null) {
+            return;
+        }
+        lanes.add(lane);
+
+        FunctionCounter.builder("droneguard.inference.completed", lane, l -> l.completed.get())
+                .description("Frames inferred").tag("camera", cameraId).register(meterRegistry);
+        FunctionCounter.builder("droneguard.inference.skipped", lane, l -> l.skipped.get())
+                .description("Frames not inferred because the camera was over its target FPS")
+                .tag("camera", cameraId).register(meterRegistry);
+        FunctionCounter.builder("droneguard.inference.expired", lane, l -> l.expired.get())
+                .description("Frames dropped after waiting longer than the scheduling deadline")
+                .tag("camera", cameraId).register(meterRegistry);
+        Gauge.builder("droneguard.inference.fps", lane, InferenceScheduler::achievedFps)
+                .description("Achieved inference rate").tag("camera", cameraId).register(meterRegistry);
+
+        // Several cameras need the dispatchers to arbitrate between them
+        if (lanes.size() > 1) {
+            startDispatchers();
+        }
+    }
+
+    private synchronized void startDispatchers() {
+        if (dispatching) {
+            return;
+        }
+        System.out.printf("🚀 Inference scheduler enabled: batches up to %d frames, %.1fms window, %dms deadline%n",
+                yolo.getMaxBatchSize(), maxWaitNanos / 1_000_000.0, deadlineNanos / 1_000_000);
+        // One dispatcher per inference slot so batches can run in parallel
+        for (int i = 0; i < yolo.getPoolSize(); i++) {
+            Thread dispatcher = new Thread(this::dispatchLoop, "inference-scheduler-" + i);
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+            dispatchers.add(dispatcher);
+        }
+        dispatching = true;
+    }
+
+    /**
+     * Whether a frame from the given camera arriving at {@code nowNanos} fits within its target FPS.
+     * An admitted frame takes the camera's slot, so call it once per frame that will be submitted.
+     */
+    public boolean shouldAdmit(String cameraId, long nowNanos) {
+        Lane lane = lane(cameraId);
+        if (lane.minIntervalNanos > 0 && lane.lastAdmittedAt != 0 && nowNanos - lane.lastAdmittedAt < lane.minIntervalNanos) {
+            lane.skipped.incrementAndGet();
+            return false;
+        }
+        lane.lastAdmittedAt = nowNanos;
+        return true;
+    }
+
+    /**
+     * Queue an admitted frame from the given camera for inference. The future completes once its batch
+     * has been decoded, or with null if the frame expired.
+     */
+    public CompletableFuture<Postprocessor.Detections> submit(String cameraId, Preprocessor.Input input) {
+        Lane lane = lane(cameraId);
+        long now = System.nanoTime();
+
+        if (!dispatching) {
+            try {
+                Postprocessor.Detections detections = yolo.infer(input);
+                recordCompletion(lane, detections);
+                return CompletableFuture.completedFuture(detections);
+            } catch (Exception e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        CompletableFuture<Postprocessor.Detections> result = new CompletableFuture<>();
+        lock.lock();
+        try {
+            lane.queue.add(new Request(lane, input, now, result));
+            queued++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        return result;
+    }
+
+    private Lane lane(String cameraId) {
+        Lane lane = lanesById.get(cameraId);
+        if (lane == null) {
+            registerCamera(cameraId, 1, null);
+            lane = lanesById.get(cameraId);
+        }
+        return lane;
+    }
+
+    private void dispatchLoop() {
+        int maxBatchSize = yolo.getMaxBatchSize();
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+        List<Preprocessor.Input> inputs = new ArrayList<>(maxBatchSize);
+
+        while (running && !Thread.currentThread().isInterrupted()) {
+            lock.lock();
+            try {
+                while (batch.isEmpty()) {
+                    while (queued == 0) {
+                        notEmpty.await();
+                    }
+                    Request first = pick();
+                    if (first != null) {
+                        batch.add(first);
+                    }
+                }
+
+                // Keep collecting until the batch is full or the first frame has waited long enough
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    if (queued == 0) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0 || (notEmpty.awaitNanos(remaining) <= 0 && queued == 0)) {
+                            break;
+                        }
+                        continue;
+                    }
+                    Request next = pick();
+                    if (next != null) {
+                        batch.add(next);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                batch.forEach(r -> r.result.cancel(false));
+                break;
+            } finally {
+                lock.unlock();
+            }
+
+            for (Request request : batch) {
+                inputs.add(request.input);
+            }
+            try {
+                List<Postprocessor.Detections> detections = yolo.inferBatch(inputs);
+                for (int i = 0; i < batch.size(); i++) {
+                    Request request = batch.get(i);
+                    recordCompletion(request.lane, detections.get(i));
+                    request.result.complete(detections.get(i));
+                }
+            } catch (Exception e) {
+                batch.forEach(r -> r.result.completeExceptionally(e));
+            }
+            batches.incrementAndGet();
+            batchedFrames.addAndGet(batch.size());
+
+            batch.clear();
+            inputs.clear();
+        }
+    }
+
+    /**
+     * Smooth weighted round-robin over the lanes that have work, after dropping expired frames.
+     * Must hold the lock; returns null if every queued frame had expired.
+     */
+    private Request pick() {
+        long now = System.nanoTime();
+        Lane best = null;
+        int totalWeight = 0;
+        for (Lane lane : lanes) {
+            Request head;
+            while ((head = lane.queue.peek()) != null && now - head.submittedAt > deadlineNanos) {
+                lane.queue.poll();
+                queued--;
+                lane.expired.incrementAndGet();
+                head.result.complete(null);
+            }
+            if (head == null) {
+                continue;
+            }
+
+            // Cameras that recently saw a drone get a bigger share
+            int weight = isBoosted(lane, now) ? lane.weight * boostFactor : lane.weight;
+            lane.currentWeight += weight;
+            totalWeight += weight;
+            if (best == null || lane.currentWeight > best.currentWeight) {
+                best = lane;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        best.currentWeight -= totalWeight;
+        queued--;
+        return best.queue.poll();
+    }
+
+    /**
+     * Achieved inference rate; the gap since the last inference counts once it exceeds the average,
+     * so a camera that stopped being inferred drops towards zero
+     */
+    private static double achievedFps(Lane lane) {
+        if (lane.intervalNanos == 0) {
+            return 0.0;
+        }
+        double sinceLast = System.nanoTime() - lane.lastCompletedAt;
+        return 1_000_000_000.0 / Math.max(lane.intervalNanos, sinceLast);
+    }
+
+    private boolean isBoosted(Lane lane, long now) {
+        return lane.lastDetectionAt != 0 && now - lane.lastDetectionAt < boostWindowNanos;
+    }
+
+    private void recordCompletion(Lane lane, Postprocessor.Detections detections) {
+        long now = System.nanoTime();
+        lane.completed.incrementAndGet();
+        if (lane.lastCompletedAt != 0) {
+            double interval = now - lane.lastCompletedAt;
+            lane.intervalNanos = lane.intervalNanos == 0 ? interval : lane.intervalNanos * 0.9 + interval * 0.1;
+        }
+        lane.lastCompletedAt = now;
+        if (detections != null && detections.size() > 0) {
+            lane.lastDetectionAt = now;
+        }
+    }
+
+    /**
+     * Per-camera scheduling counters for the status page
+     */
+    public String getCameraStats(String cameraId) {
+        Lane lane = lanesById.get(cameraId);
+        if (lane == null) {
+            return "not scheduled";
+        }
+        return String.format("%.1f fps (weight %d%s), inferred %d, skipped %d, expired %d",
+                achievedFps(lane), lane.weight,
+                isBoosted(lane, System.nanoTime()) ? ", boosted" : "",
+                lane.completed.get(), lane.skipped.get(), lane.expired.get());
+    }
+
+    /**
+     * Average number of frames per batch since startup
+     */
+    public double getAverageBatchSize() {
+        long count = batches.get();
+        return count > 0 ? batchedFrames.get() / (double) count : 0.0;
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        dispatchers.forEach(Thread::interrupt);
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.droneguard.yolo;
+
+import com.example.droneguard.diagnostics.FrameTrace;
+
+import java.util.Arrays;
+
+/**
+ * Non-Maximum Suppression over a {@link DetectionBuffer}.
+ * When {@link #select} is called, candidates are already sorted ({@code order}) and
+ * their corners and areas precomputed. Implementations may keep scratch state, so each
+ * inference slot gets its own instance.
+ * Selected with {@code droneguard.postprocess.nms}: greedy | grid | soft.
+ */
+public interface NmsStrategy {
+
+    /**
+     * Write the surviving candidate indices into {@code candidates.kept}, best first
+     *
+     * @return number of survivors
+     */
+    int select(DetectionBuffer candidates, float iouThreshold, FrameTrace trace);
+
+    /**
+     * Classic greedy NMS: keep the best remaining box and drop everything overlapping it
+     */
+    class Greedy implements NmsStrategy {
+        @Override
+        public int select(DetectionBuffer c, float iouThreshold, FrameTrace trace) {
+            int size = c.size;
+            int[] order = c.order;
+            boolean[] suppressed = c.suppressed;
+            Arrays.fill(suppressed, 0, size, false);
+            int keptCount = 0;
+
+            for (int i = 0; i < size; i++) {
+                int a = order[i];
+                if (suppressed[a]) continue;
+
+                c.kept[keptCount++] = a;
+                if (trace.enabled()) {
+                    trace.log("✅ Kept detection: conf=%.3f, box=(%.1f,%.1f,%.1f,%.1f)",
+                        c.confidence[a], c.x[a], c.y[a], c.w[a], c.h[a]);
+                }
+
+                // Suppress overlapping detections
+                for (int j = i + 1; j < size; j++) {
+                    int b = order[j];
+                    if (suppressed[b]) continue;
+
+                    float iou = c.iou(a, b);
+                    if (iou > iouThreshold) {
+                        suppressed[b] = true;
+                        if (trace.enabled()) {
+                            trace.log("🚫 Suppressed detection: conf=%.3f, IoU=%.3f", c.confidence[b], iou);
+                        }
+                    }
+                }
+            }
+            return keptCount;
+        }
+    }
+
+    /**
+     * Per-class NMS done as a single pass: boxes are shifted apart by class first,
+     * so the wrapped strategy never lets one class suppress another
+     */
+    class PerClass implements NmsStrategy {
+        private final NmsStrategy delegate;
+
+        public PerClass(NmsStrategy delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int select(DetectionBuffer c, float iouThreshold, FrameTrace trace) {
+            c.separateClasses();
+            return delegate.select(c, iouThreshold, trace);
+        }
+    }
+}
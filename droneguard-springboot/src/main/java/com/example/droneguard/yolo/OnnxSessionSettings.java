@@ -0,0 +1,154 @@
+package com.example.droneguard.yolo;
+
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * ONNX Runtime session tuning from {@code droneguard.onnx.*}.
+ * Lets inference be pinned to a core budget that leaves room for capture and encoding,
+ * and optionally caches the optimized graph on disk so restarts skip re-optimization.
+ */
+@Component
+public class OnnxSessionSettings {
+
+    private final int intraOpThreads;
+    private final int interOpThreads;
+    private final OrtSession.SessionOptions.OptLevel optimizationLevel;
+    private final OrtSession.SessionOptions.ExecutionMode executionMode;
+    private final boolean memoryPattern;
+    private final String optimizedModelPath;
+    private final int imgSize;
+
+    public OnnxSessionSettings(@Value("${droneguard.onnx.intra-op-threads:0}") int intraOpThreads,
+                               @Value("${droneguard.onnx.inter-op-threads:0}") int interOpThreads,
+                               @Value("${droneguard.onnx.optimization-level:ALL_OPT}") String optimizationLevel,
+                               @Value("${droneguard.onnx.execution-mode:SEQUENTIAL}") String executionMode,
+                               @Value("${droneguard.onnx.memory-pattern:true}") boolean memoryPattern,
+                               @Value("${droneguard.onnx.optimized-model-path:}") String optimizedModelPath,
+                               @Value("${droneguard.imgsz}") int imgSize) {
+        this.intraOpThreads = intraOpThreads;
+        this.interOpThreads = interOpThreads;
+        this.optimizationLevel = OrtSession.SessionOptions.OptLevel.valueOf(optimizationLevel.trim().toUpperCase());
+        this.executionMode = OrtSession.SessionOptions.ExecutionMode.valueOf(executionMode.trim().toUpperCase());
+        this.memoryPattern = memoryPattern;
+        this.optimizedModelPath = optimizedModelPath == null ? "" : optimizedModelPath.trim();
+        this.imgSize = imgSize;
+    }
+
+    /**
+     * Create a session for the model, loading the cached optimized graph when it was built from
+     * the same model file with the same settings
+     * @param sessionCount number of sessions that will run side by side; without an explicit
+     *                     intra-op thread count they split the available cores between them
+     */
+    public OrtSession createSession(OrtEnvironment env, String modelPath, int sessionCount) throws OrtException {
+        try (OrtSession.SessionOptions opts = new OrtSession.SessionOptions()) {
+            // 0 keeps ONNX Runtime's own default for the thread pools
+            int intraOpThreads = this.intraOpThreads;
+            if (intraOpThreads <= 0 && sessionCount > 1) {
+                intraOpThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / sessionCount);
+            }
+            if (intraOpThreads > 0) opts.setIntraOpNumThreads(intraOpThreads);
+            if (interOpThreads > 0) opts.setInterOpNumThreads(interOpThreads);
+            opts.setExecutionMode(executionMode);
+            opts.setMemoryPatternOptimization(memoryPattern);
+
+            String pathToLoad = modelPath;
+            OrtSession.SessionOptions.OptLevel level = optimizationLevel;
+            String cacheKey = cacheKey(env, modelPath);
+            boolean cached = cacheKey != null && cacheKey.equals(readCacheKey());
+            if (cached) {
+                // Graph was already optimized on a previous start; only the hardware-specific
+                // layout optimizations left out of the saved graph still run
+                pathToLoad = optimizedModelPath;
+                opts.setOptimizationLevel(optimizationLevel == OrtSession.SessionOptions.OptLevel.ALL_OPT
+                        ? OrtSession.SessionOptions.OptLevel.ALL_OPT : OrtSession.SessionOptions.OptLevel.NO_OPT);
+                System.out.println("♻️ Loading cached optimized model: " + optimizedModelPath);
+            } else if (cacheKey != null) {
+                level = serializedLevel();
+                opts.setOptimizationLevel(level);
+                opts.setOptimizedModelFilePath(optimizedModelPath);
+                System.out.println("💾 Optimized model will be cached at: " + optimizedModelPath);
+            } else {
+                opts.setOptimizationLevel(level);
+            }
+
+            System.out.printf("⚙️ ONNX session: intra-op=%s, inter-op=%s, opt=%s, mode=%s, mem-pattern=%s%n",
+                    intraOpThreads > 0 ? intraOpThreads : "default",
+                    interOpThreads > 0 ? interOpThreads : "default",
+                    cached ? "cached" : level, executionMode, memoryPattern);
+
+            OrtSession session = env.createSession(pathToLoad, opts);
+            if (cacheKey != null && !cached) {
+                writeCacheKey(cacheKey);
+            }
+            return session;
+        }
+    }
+
+    /**
+     * Level the cached graph is saved at. ONNX Runtime recommends at most EXTENDED_OPT for
+     * graphs saved for later: ALL_OPT adds layout changes specific to the hardware it ran on.
+     */
+    private OrtSession.SessionOptions.OptLevel serializedLevel() {
+        return optimizationLevel == OrtSession.SessionOptions.OptLevel.ALL_OPT
+                ? OrtSession.SessionOptions.OptLevel.EXTENDED_OPT : optimizationLevel;
+    }
+
+    /**
+     * What the cached graph depends on: the model's content, the saved optimization level,
+     * the input size, the execution provider and the ONNX Runtime version
+     * @return null if caching is off or the model can't be read
+     */
+    private String cacheKey(OrtEnvironment env, String modelPath) {
+        if (optimizedModelPath.isEmpty()) {
+            return null;
+        }
+        try (DigestInputStream in = new DigestInputStream(Files.newInputStream(Path.of(modelPath)),
+                MessageDigest.getInstance("SHA-256"))) {
+            in.transferTo(OutputStream.nullOutputStream());
+            String hash = HexFormat.of().formatHex(in.getMessageDigest().digest());
+            return "model=" + hash + " opt=" + serializedLevel() + " imgsz=" + imgSize
+                    + " ep=cpu ort=" + env.getVersion();
+        } catch (IOException | NoSuchAlgorithmException e) {
+            System.err.println("⚠️ Can't fingerprint " + modelPath + " for the optimized model cache: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * The key of the cached graph, kept next to it; null if there is no cached graph
+     */
+    private String readCacheKey() {
+        Path keyFile = Path.of(optimizedModelPath + ".key");
+        if (!Files.isRegularFile(Path.of(optimizedModelPath)) || !Files.isRegularFile(keyFile)) {
+            return null;
+        }
+        try {
+            return Files.readString(keyFile, StandardCharsets.UTF_8).trim();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void writeCacheKey(String cacheKey) {
+        try {
+            Files.writeString(Path.of(optimizedModelPath + ".key"), cacheKey, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.err.println("⚠️ Can't write optimized model cache key: " + e.getMessage());
+        }
+    }
+}
@@ -1,34 +1,39 @@
 package com.example.droneguard.yolo;
 
+import com.example.droneguard.diagnostics.FrameTrace;
 import org.opencv.core.*;
 import org.opencv.imgproc.Imgproc;
 
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
-import java.time.Instant;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
 
 public class Postprocessor {
 
-    // Single-class model
-    private static final String[] CLASS_NAMES = { "uav" };
-
     public static class Detection {
         public final float x, y, w, h; // Bounding box (center x, y, width, height)
         public final float confidence;
         public final int classId;
         public final String className;
+        public final int trackId;     // Stable id assigned by the tracker, -1 if untracked
+
+        public Detection(float x, float y, float w, float h, float confidence, int classId, String className) {
+            this(x, y, w, h, confidence, classId, className, -1);
+        }
 
-        public Detection(float x, float y, float w, float h, float confidence, int classId) {
+        public Detection(float x, float y, float w, float h, float confidence, int classId, String className,
+                         int trackId) {
             this.x = x;
             this.y = y;
             this.w = w;
             this.h = h;
             this.confidence = confidence;
             this.classId = classId;
-            this.className = (classId >= 0 && classId < CLASS_NAMES.length) ? CLASS_NAMES[classId] : "unknown";
+            this.className = className;
+            this.trackId = trackId;
         }
 
         // Convert to corner coordinates
@@ -38,28 +43,105 @@ public class Postprocessor {
         public float getBottom() { return y + h / 2; }
     }
 
+    /**
+     * Final detections of one frame, kept as compact primitive arrays.
+     * {@link Detection} objects are only built if someone asks for {@link #getDetections()}.
+     */
     public static class Detections {
-        public final List<Detection> detections;
+        public static final Detections EMPTY = new Detections(new float[0], new float[0], new float[0],
+                new float[0], new float[0], new int[0], null, null);
+
+        private final float[] x, y, w, h;
+        private final float[] confidence;
+        private final int[] classId;
+        private final int[] trackId;        // Null unless the detections came out of a tracker
+        private final OutputLayout layout;  // Source of class names
+        private List<Detection> detections;
+
+        private Detections(float[] x, float[] y, float[] w, float[] h, float[] confidence, int[] classId,
+                           int[] trackId, OutputLayout layout) {
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+            this.confidence = confidence;
+            this.classId = classId;
+            this.trackId = trackId;
+            this.layout = layout;
+        }
+
+        /**
+         * Wrap tracker output. The arrays are taken over, not copied, and must all have the same length.
+         */
+        public static Detections tracked(float[] x, float[] y, float[] w, float[] h, float[] confidence,
+                                         int[] classId, int[] trackId, OutputLayout layout) {
+            return new Detections(x, y, w, h, confidence, classId, trackId, layout);
+        }
+
+        /**
+         * Copy the selected candidates out of a reusable buffer
+         */
+        static Detections copyOf(DetectionBuffer buffer, int[] indices, int count, OutputLayout layout) {
+            Detections result = new Detections(new float[count], new float[count], new float[count],
+                    new float[count], new float[count], new int[count], null, layout);
+            for (int i = 0; i < count; i++) {
+                int k = indices[i];
+                result.x[i] = buffer.x[k];
+                result.y[i] = buffer.y[k];
+                result.w[i] = buffer.w[k];
+                result.h[i] = buffer.h[k];
+                result.confidence[i] = buffer.confidence[k];
+                result.classId[i] = buffer.classId[k];
+            }
+            return result;
+        }
+
+        public int size() {
+            return x.length;
+        }
+
+        // Per-detection accessors, so callers can read the arrays without building Detection objects
+        public float getX(int i) { return x[i]; }
+        public float getY(int i) { return y[i]; }
+        public float getWidth(int i) { return w[i]; }
+        public float getHeight(int i) { return h[i]; }
+        public float getConfidence(int i) { return confidence[i]; }
+        public int getClassId(int i) { return classId[i]; }
+        public int getTrackId(int i) { return trackId != null ? trackId[i] : -1; }
 
-        public Detections(List<Detection> detections) {
-            this.detections = detections;
+        /**
+         * Class names of the model that produced these detections (null for {@link #EMPTY})
+         */
+        public OutputLayout getLayout() {
+            return layout;
+        }
+
+        /**
+         * Object view of the detections, built on first use
+         */
+        public List<Detection> getDetections() {
+            List<Detection> view = detections;
+            if (view == null) {
+                List<Detection> built = new ArrayList<>(size());
+                for (int i = 0; i < size(); i++) {
+                    built.add(new Detection(x[i], y[i], w[i], h[i], confidence[i], classId[i],
+                            layout.label(classId[i]), getTrackId(i)));
+                }
+                view = Collections.unmodifiableList(built);
+                detections = view;
+            }
+            return view;
         }
 
         /**
          * Draw bounding boxes and labels on the image
          */
         public void drawOn(Mat image) {
-            System.out.printf("🖼️ Drawing %d detections on image size: %dx%d%n", 
-                detections.size(), image.cols(), image.rows());
-            
-            for (Detection det : detections) {
-                System.out.printf("📦 Final Detection: center(%.1f,%.1f) size(%.1f,%.1f) conf=%.3f%n", 
-                    det.x, det.y, det.w, det.h, det.confidence);
-                
-                int left = (int) det.getLeft();
-                int top = (int) det.getTop();
-                int right = (int) det.getRight();
-                int bottom = (int) det.getBottom();
+            for (int i = 0; i < size(); i++) {
+                int left = (int) (x[i] - w[i] / 2);
+                int top = (int) (y[i] - h[i] / 2);
+                int right = (int) (x[i] + w[i] / 2);
+                int bottom = (int) (y[i] + h[i] / 2);
 
                 // Clamp coordinates to image bounds
                 left = Math.max(0, Math.min(left, image.cols() - 1));
@@ -74,7 +156,9 @@ public class Postprocessor {
                 Imgproc.rectangle(image, topLeft, bottomRight, boxColor, 3);
 
                 // Draw label background
-                String label = String.format("%s %.2f", det.className, det.confidence);
+                String label = trackId != null
+                        ? String.format("%s #%d %.2f", layout.label(classId[i]), trackId[i], confidence[i])
+                        : String.format("%s %.2f", layout.label(classId[i]), confidence[i]);
                 Size labelSize = Imgproc.getTextSize(label, Imgproc.FONT_HERSHEY_SIMPLEX, 0.6, 2, null);
                 Point labelPos = new Point(left, Math.max(top - 10, labelSize.height + 5));
                 Point labelBg1 = new Point(left - 2, labelPos.y - labelSize.height - 5);
@@ -90,65 +174,126 @@ public class Postprocessor {
     }
 
     /**
-     * Process YOLO v8 output for single-class UAV model
-     * YOLOv8 output format: [batch_size, 4+num_classes, num_anchors]
-     * For single class: [1, 5, 336] -> 336 detections with [x, y, w, h, confidence] each
-     * BUT: YOLOv8 outputs in TRANSPOSED format: [x1,x2,...,x336, y1,y2,...,y336, w1,w2,...,w336, h1,h2,...,h336, c1,c2,...,c336]
+     * How a model's output tensor is laid out, worked out once from its actual shape.
+     * YOLOv8 exports [batch, 4+num_classes, anchors] (features-first: each feature is a contiguous
+     * row of anchor values); some exports transpose it to [batch, anchors, 4+num_classes].
+     * Anchors always outnumber features, which tells the two apart.
+     * (anchors = 336 at 128 px, 2100 at 320 px, 8400 at 640 px)
      */
-    public static Detections process(float[] output, int numDetections, int numClasses,
-                                     float confThreshold, float nmsThreshold,
-                                     Preprocessor.Input input) {
+    public static class OutputLayout {
+        public final int anchors;
+        public final int numClasses;
+        public final boolean featuresFirst;
+        public final int inputSize;      // Letterbox size, for models that emit normalized coordinates
+        private final String[] labels;
+
+        // Offset of feature f of anchor a is f * featureStride + a * anchorStride
+        final int featureStride;
+        final int anchorStride;
+
+        private OutputLayout(int anchors, int numClasses, boolean featuresFirst, int inputSize, String[] labels) {
+            this.anchors = anchors;
+            this.numClasses = numClasses;
+            this.featuresFirst = featuresFirst;
+            this.inputSize = inputSize;
+            this.labels = labels;
+            this.featureStride = featuresFirst ? anchors : 1;
+            this.anchorStride = featuresFirst ? 1 : 4 + numClasses;
+        }
 
-        DateTimeFormatter TS_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS")
-                .withZone(ZoneId.systemDefault());
-        String ts = "⏰ " + TS_FORMAT.format(Instant.now()) + " "; 
+        /**
+         * @param shape  output shape of one inference, [batch, a, b]
+         * @param labels class names by class id; missing names are reported as "class N"
+         */
+        public static OutputLayout fromShape(long[] shape, int inputSize, List<String> labels) {
+            if (shape.length != 3 || shape[1] <= 0 || shape[2] <= 0) {
+                throw new IllegalArgumentException("Unsupported YOLO output shape " + Arrays.toString(shape));
+            }
+            boolean featuresFirst = shape[1] < shape[2];
+            int features = (int) Math.min(shape[1], shape[2]);
+            int anchors = (int) Math.max(shape[1], shape[2]);
+            if (features < 5) {
+                throw new IllegalArgumentException("YOLO output " + Arrays.toString(shape)
+                        + " has no class scores (expected 4 box values + at least 1 class)");
+            }
 
-        System.out.print(ts);
+            int numClasses = features - 4;
+            String[] names = new String[numClasses];
+            for (int c = 0; c < numClasses; c++) {
+                names[c] = c < labels.size() ? labels.get(c) : "class " + c;
+            }
+            if (labels.size() != numClasses) {
+                System.err.printf("⚠️ Model has %d classes but %d labels are configured%n", numClasses, labels.size());
+            }
+            return new OutputLayout(anchors, numClasses, featuresFirst, inputSize, names);
+        }
 
-        System.out.printf("🔍 Processing YOLO v8 output: Array length=%d, Expected shape=[1,5,336], conf_threshold=%.3f%n", 
-            output.length, confThreshold);
-        
-        System.out.printf("📐 Image info: original=%dx%d, scale=%.3f, pad=(%.1f,%.1f)%n", 
-            input.origWidth, input.origHeight, input.scale, input.padX, input.padY);
+        public int size() {
+            return anchors * (4 + numClasses);
+        }
 
-        List<Detection> allDetections = new ArrayList<>();
-        
-        // YOLOv8 TRANSPOSED format: output is [1680] flattened from [1, 5, 336]
-        // Structure: [x1,x2,...,x336, y1,y2,...,y336, w1,w2,...,w336, h1,h2,...,h336, c1,c2,...,c336]
-        int totalDetections = 336;
-        int featuresPerDetection = 5; // x, y, w, h, confidence
-        
-        if (output.length != totalDetections * featuresPerDetection) {
-            System.err.printf("❌ Unexpected output array length: %d (expected %d)%n", 
-                output.length, totalDetections * featuresPerDetection);
+        public String label(int classId) {
+            return (classId >= 0 && classId < labels.length) ? labels[classId] : "unknown";
         }
 
-        int validDetections = 0;
-        int processedDetections = 0;
-        
-        // Parse TRANSPOSED format
-        for (int i = 0; i < totalDetections && i < output.length / featuresPerDetection; i++) {
-            // In transposed format:
-            // x values: output[0] to output[335]
-            // y values: output[336] to output[671] 
-            // w values: output[672] to output[1007]
-            // h values: output[1008] to output[1343]
-            // confidence values: output[1344] to output[1679]
-            
-            float x = output[i];                              // x coordinates: indices 0-335
-            float y = output[i + totalDetections];            // y coordinates: indices 336-671
-            float w = output[i + totalDetections * 2];        // w coordinates: indices 672-1007
-            float h = output[i + totalDetections * 3];        // h coordinates: indices 1008-1343
-            float confidence = output[i + totalDetections * 4]; // confidence: indices 1344-1679
-            
-            processedDetections++;
-            
-            // Debug first few detections to verify format
-            if (processedDetections <= 3) {
-                System.out.printf("🔍 Raw detection #%d: x=%.3f, y=%.3f, w=%.3f, h=%.3f, conf=%.3f%n", 
-                    processedDetections, x, y, w, h, confidence);
+        @Override
+        public String toString() {
+            return String.format("%d anchors x (4 + %d classes), %s", anchors, numClasses,
+                    featuresFirst ? "features-first" : "anchors-first");
+        }
+    }
+
+    /**
+     * Decode one image's YOLOv8 output: box (center x, y, w, h) plus one score per class,
+     * taking the best class of each anchor.
+     * The output is read in place from the tensor's buffer, following the model's {@link OutputLayout}.
+     * Candidates are collected in the caller's reusable {@link DetectionBuffer} and
+     * filtered with the given NMS strategy.
+     */
+    public static Detections process(FloatBuffer output, OutputLayout layout,
+                                     float confThreshold, float nmsThreshold,
+                                     Preprocessor.Input input, DetectionBuffer candidates,
+                                     NmsStrategy nms, FrameTrace trace) {
+
+        if (trace.enabled()) {
+            trace.log("🔍 Processing YOLO v8 output: Buffer length=%d, Layout=%s, conf_threshold=%.3f", 
+                output.capacity(), layout, confThreshold);
+            trace.log("📐 Image info: original=%dx%d, scale=%.3f, pad=(%.1f,%.1f)", 
+                input.origWidth, input.origHeight, input.scale, input.padX, input.padY);
+        }
+
+        candidates.clear();
+
+        int anchors = layout.anchors;
+        int featureStride = layout.featureStride;
+        int anchorStride = layout.anchorStride;
+        if (output.capacity() < layout.size()) {
+            System.err.printf("❌ Output buffer holds %d values, layout needs %d%n", output.capacity(), layout.size());
+            return Detections.EMPTY;
+        }
+
+        // Pass 1: scan only the confidence values and keep the anchors above threshold
+        int hitCount = scanConfidence(output, layout, confThreshold, candidates);
+        float[] scores = candidates.scores;
+        int[] hits = candidates.hits;
+
+        // Debug first few anchors to verify format
+        if (trace.enabled()) {
+            for (int i = 0; i < Math.min(3, anchors); i++) {
+                int base = i * anchorStride;
+                trace.log("🔍 Raw detection #%d: x=%.3f, y=%.3f, w=%.3f, h=%.3f, conf=%.3f", i + 1,
+                    output.get(base), output.get(base + featureStride), output.get(base + featureStride * 2),
+                    output.get(base + featureStride * 3), scores[i]);
             }
-            
+        }
+
+        // Pass 2: gather and transform coordinates for the surviving anchors only
+        int validDetections = 0;
+        for (int k = 0; k < hitCount; k++) {
+            int i = hits[k];
+            int base = i * anchorStride;
+            float confidence = scores[i];
+
             // YOLOv8 confidence is typically already normalized (0-1), but check your model's output range
             float normalizedConfidence = confidence;
             if (confidence > 1.0f) {
@@ -156,40 +301,50 @@ public class Postprocessor {
                 normalizedConfidence = confidence / 100.0f;
             }
             
-            // Early filter - only process high-confidence detections
             if (normalizedConfidence > confThreshold) {
                 validDetections++;
+
+                float x = output.get(base);
+                float y = output.get(base + featureStride);
+                float w = output.get(base + featureStride * 2);
+                float h = output.get(base + featureStride * 3);
+
+                // Best class for this anchor
+                int classId = 0;
+                for (int c = 1; c < layout.numClasses; c++) {
+                    if (output.get(base + featureStride * (4 + c)) > output.get(base + featureStride * (4 + classId))) {
+                        classId = c;
+                    }
+                }
                 
                 // Debug first few valid detections
-                if (validDetections <= 5) {
-                    System.out.printf("🎯 Valid detection #%d: x=%.3f, y=%.3f, w=%.3f, h=%.3f, conf=%.3f%n", 
-                        validDetections, x, y, w, h, normalizedConfidence);
+                if (trace.enabled() && validDetections <= 5) {
+                    trace.log("🎯 Valid detection #%d: x=%.3f, y=%.3f, w=%.3f, h=%.3f, conf=%.3f, class=%d", 
+                        validDetections, x, y, w, h, normalizedConfidence, classId);
                 }
                 
                 // COORDINATE TRANSFORMATION
-                // YOLOv8 typically outputs normalized coordinates (0-1), but your model might output pixel coordinates (0-128)
-                // First, check if coordinates are normalized or in pixel space
+                // YOLOv8 typically outputs letterbox pixel coordinates (0-imgsz), but some exports are normalized (0-1)
                 boolean isNormalized = (x <= 1.0f && y <= 1.0f && w <= 1.0f && h <= 1.0f);
                 
                 if (!isNormalized) {
-                    // Coordinates are in letterbox pixel space (0-128)
-                    if (validDetections <= 3) {
-                        System.out.printf("📏 Letterbox pixel coordinates: x=%.1f, y=%.1f, w=%.1f, h=%.1f%n", 
+                    if (trace.enabled() && validDetections <= 3) {
+                        trace.log("📏 Letterbox pixel coordinates: x=%.1f, y=%.1f, w=%.1f, h=%.1f", 
                             x, y, w, h);
                     }
                 } else {
                     // Coordinates are normalized (0-1), convert to letterbox pixel space
-                    x *= 128;
-                    y *= 128;
-                    w *= 128;
-                    h *= 128;
+                    x *= layout.inputSize;
+                    y *= layout.inputSize;
+                    w *= layout.inputSize;
+                    h *= layout.inputSize;
                     
-                    if (validDetections <= 3) {
-                        System.out.printf("📏 Converted to letterbox pixels: x=%.1f, y=%.1f, w=%.1f, h=%.1f%n", 
+                    if (trace.enabled() && validDetections <= 3) {
+                        trace.log("📏 Converted to letterbox pixels: x=%.1f, y=%.1f, w=%.1f, h=%.1f", 
                             x, y, w, h);
                     }
                 }
-                
+
                 // Transform from letterbox space back to original image space
                 // Remove padding first
                 x = x - (float) input.padX;
@@ -201,8 +356,8 @@ public class Postprocessor {
                 w = w / (float) input.scale;
                 h = h / (float) input.scale;
                 
-                if (validDetections <= 3) {
-                    System.out.printf("🔄 Final coordinates: x=%.1f, y=%.1f, w=%.1f, h=%.1f%n", 
+                if (trace.enabled() && validDetections <= 3) {
+                    trace.log("🔄 Final coordinates: x=%.1f, y=%.1f, w=%.1f, h=%.1f", 
                         x, y, w, h);
                 }
                 
@@ -211,8 +366,8 @@ public class Postprocessor {
                 
                 // Sanity checks
                 if (w <= 0 || h <= 0 || w > input.origWidth * 2 || h > input.origHeight * 2) {
-                    if (validDetections <= 3) {
-                        System.out.printf("⚠️ Invalid box dimensions, skipping%n");
+                    if (trace.enabled() && validDetections <= 3) {
+                        trace.log("⚠️ Invalid box dimensions, skipping");
                     }
                     continue;
                 }
@@ -221,74 +376,71 @@ public class Postprocessor {
                 x = Math.max(0, Math.min(x, input.origWidth));
                 y = Math.max(0, Math.min(y, input.origHeight));
                 
-                allDetections.add(new Detection(x, y, w, h, confidence, 0));
+                candidates.add(x, y, w, h, confidence, classId);
             }
         }
 
-        System.out.printf("📊 Processed %d detections, found %d above threshold (%.3f)%n", 
-            processedDetections, validDetections, confThreshold);
+        if (trace.enabled()) {
+            trace.log("📊 Processed %d detections, found %d above threshold (%.3f)", 
+                anchors, validDetections, confThreshold);
+        }
 
         // Apply Non-Maximum Suppression
-        List<Detection> finalDetections = applyNMS(allDetections, nmsThreshold);
+        Detections finalDetections = candidates.suppress(nms, nmsThreshold, layout, trace);
         
-        System.out.printf("📊 After NMS: %d final detections%n", finalDetections.size());
+        if (trace.enabled()) {
+            trace.log("📊 After NMS: %d final detections", finalDetections.size());
+            for (Detection det : finalDetections.getDetections()) {
+                trace.log("📦 Final Detection: center(%.1f,%.1f) size(%.1f,%.1f) conf=%.3f", 
+                    det.x, det.y, det.w, det.h, det.confidence);
+            }
+            trace.publish();
+        }
 
-        return new Detections(finalDetections);
+        return finalDetections;
     }
 
     /**
-     * Non-Maximum Suppression
+     * First decoder pass: each anchor's best class score goes into {@code candidates.scores}
+     * and the indices of anchors above the threshold into {@code candidates.hits}.
+     * Features-first outputs are read plane by plane with bulk copies, and the compaction
+     * loop has no data-dependent branch: every index is written, the count only advances on a hit.
+     * Scores in the 0-100 range are normalized in pass 2, so this pass keeps a superset.
+     *
+     * @return number of hits
      */
-    private static List<Detection> applyNMS(List<Detection> detections, float nmsThreshold) {
-        if (detections.isEmpty()) return detections;
-
-        // Sort by confidence (highest first)
-        detections.sort((a, b) -> Float.compare(b.confidence, a.confidence));
-        List<Detection> result = new ArrayList<>();
-        boolean[] suppressed = new boolean[detections.size()];
-
-        for (int i = 0; i < detections.size(); i++) {
-            if (suppressed[i]) continue;
-            
-            Detection det1 = detections.get(i);
-            result.add(det1);
-            
-            System.out.printf("✅ Kept detection: conf=%.3f, box=(%.1f,%.1f,%.1f,%.1f)%n", 
-                det1.confidence, det1.x, det1.y, det1.w, det1.h);
-
-            // Suppress overlapping detections
-            for (int j = i + 1; j < detections.size(); j++) {
-                if (suppressed[j]) continue;
-                
-                Detection det2 = detections.get(j);
-                float iou = calculateIoU(det1, det2);
-                
-                if (iou > nmsThreshold) {
-                    suppressed[j] = true;
-                    System.out.printf("🚫 Suppressed detection: conf=%.3f, IoU=%.3f%n", det2.confidence, iou);
+    static int scanConfidence(FloatBuffer output, OutputLayout layout, float confThreshold,
+                              DetectionBuffer candidates) {
+        int anchors = layout.anchors;
+        candidates.ensureAnchorCapacity(anchors);
+        float[] scores = candidates.scores;
+        int[] hits = candidates.hits;
+
+        if (layout.featuresFirst) {
+            output.get(4 * anchors, scores, 0, anchors);
+            float[] classScores = candidates.classScores;
+            for (int c = 1; c < layout.numClasses; c++) {
+                output.get((4 + c) * anchors, classScores, 0, anchors);
+                for (int i = 0; i < anchors; i++) {
+                    scores[i] = Math.max(scores[i], classScores[i]);
+                }
+            }
+        } else {
+            int features = 4 + layout.numClasses;
+            for (int i = 0; i < anchors; i++) {
+                float best = output.get(i * features + 4);
+                for (int c = 1; c < layout.numClasses; c++) {
+                    best = Math.max(best, output.get(i * features + 4 + c));
                 }
+                scores[i] = best;
             }
         }
 
-        return result;
-    }
-
-    /**
-     * Intersection over Union
-     */
-    private static float calculateIoU(Detection a, Detection b) {
-        float left = Math.max(a.getLeft(), b.getLeft());
-        float top = Math.max(a.getTop(), b.getTop());
-        float right = Math.min(a.getRight(), b.getRight());
-        float bottom = Math.min(a.getBottom(), b.getBottom());
-
-        if (left >= right || top >= bottom) return 0.0f;
-
-        float intersection = (right - left) * (bottom - top);
-        float areaA = a.w * a.h;
-        float areaB = b.w * b.h;
-        float union = areaA + areaB - intersection;
-
-        return union > 0 ? intersection / union : 0.0f;
+        int count = 0;
+        for (int i = 0; i < anchors; i++) {
+            hits[count] = i;
+            count += scores[i] > confThreshold ? 1 : 0;
+        }
+        return count;
     }
-}
\ No newline at end of file
+}
@@ -1,88 +1,232 @@
 package com.example.droneguard.yolo;
 
 import org.opencv.core.*;
+import org.opencv.dnn.Dnn;
+import org.opencv.dnn.Image2BlobParams;
 import org.opencv.imgproc.Imgproc;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Letterbox preprocessing for YOLO models.
+ * Instances are stateful and not thread-safe: each pipeline worker owns one, and the
+ * working Mats and tensor buffers are reused for every frame so the steady state
+ * allocates nothing. Buffers are only rebuilt when the source resolution changes.
+ */
 public class Preprocessor {
-    
+
     // Load OpenCV native library
     static {
         nu.pattern.OpenCV.loadShared();
     }
-    
+
     public static class Input {
-        public final float[] data;      // RGB pixel data normalized to [0,1]
-        public final double scale;      // Scale factor applied
-        public final double padX, padY; // Padding added
-        public final int origWidth, origHeight; // Original image dimensions
-        
-        public Input(float[] data, double scale, double padX, double padY, int origWidth, int origHeight) {
-            this.data = data;
-            this.scale = scale;
-            this.padX = padX;
-            this.padY = padY;
-            this.origWidth = origWidth;
-            this.origHeight = origHeight;
+        public final FloatBuffer data;  // RGB pixel data normalized to [0,1], CHW, direct memory
+        public double scale;            // Scale factor applied
+        public double padX, padY;       // Padding added
+        public int origWidth, origHeight; // Original image dimensions
+
+        private final Preprocessor owner;
+        private volatile boolean inUse;
+
+        private Input(Preprocessor owner, int targetSize) {
+            this.owner = owner;
+            this.data = ByteBuffer.allocateDirect(3 * targetSize * targetSize * Float.BYTES)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+        }
+
+        /**
+         * Hand the buffer back to its preprocessor once inference has consumed it
+         */
+        public void release() {
+            owner.recycle(this);
+        }
+    }
+
+    /**
+     * Strategy for turning the letterboxed BGR image into normalized RGB CHW floats.
+     * The BGR to RGB swap is part of the packing, there is no separate cvtColor pass.
+     */
+    interface ChannelPacker {
+        void pack(Mat bgr, FloatBuffer chw);
+    }
+
+    /**
+     * Portable scalar loop, also the fallback when the Vector API is unavailable
+     */
+    static class ScalarPacker implements ChannelPacker {
+        private final byte[] hwc;
+
+        ScalarPacker(int pixelCount) {
+            this.hwc = new byte[3 * pixelCount];
+        }
+
+        @Override
+        public void pack(Mat bgr, FloatBuffer chw) {
+            bgr.get(0, 0, hwc);
+            int pixelCount = hwc.length / 3;
+            int idx = 0;
+            for (int c = 0; c < 3; c++) {
+                int src = 2 - c; // RGB plane c comes from BGR channel 2-c
+                for (int p = 0; p < pixelCount; p++) {
+                    chw.put(idx++, (hwc[p * 3 + src] & 0xFF) / 255.0f);
+                }
+            }
         }
     }
-    
+
+    /**
+     * OpenCV's native dnn.blobFromImage packing (scale, swapRB and HWC to NCHW in one call),
+     * copied into the direct input buffer
+     */
+    static class BlobPacker implements ChannelPacker {
+        private final Image2BlobParams params;
+        private final Mat blob = new Mat();
+        private final float[] values;
+
+        BlobPacker(int targetSize) {
+            this.params = new Image2BlobParams(new Scalar(1.0 / 255.0, 1.0 / 255.0, 1.0 / 255.0),
+                    new Size(targetSize, targetSize), new Scalar(0, 0, 0), true, CvType.CV_32F);
+            this.values = new float[3 * targetSize * targetSize];
+        }
+
+        @Override
+        public void pack(Mat bgr, FloatBuffer chw) {
+            Dnn.blobFromImageWithParams(bgr, blob, params);
+            blob.get(new int[]{0, 0, 0, 0}, values);
+            chw.put(0, values);
+        }
+    }
+
+    private final int targetSize;
+    private final BlockingQueue<Input> freeInputs;
+    private final ChannelPacker packer;
+
+    // Working buffers, reused across frames
+    private final Mat padded;
+    private Mat roi;
+    private Size roiSize;
+
+    // Geometry of the last source resolution
+    private int origWidth = -1, origHeight = -1;
+    private double scale, padX, padY;
+
+    /**
+     * @param targetSize model input size
+     * @param poolSize   number of input buffers that may be in flight at once
+     *                   (queued for or running inference)
+     * @param packing    "scalar", "vector" (SIMD via jdk.incubator.vector, falls back to scalar)
+     *                   or "blob" (OpenCV dnn.blobFromImage)
+     */
+    public Preprocessor(int targetSize, int poolSize, String packing) {
+        this.targetSize = targetSize;
+        this.packer = createPacker(packing, targetSize);
+        this.padded = new Mat(targetSize, targetSize, CvType.CV_8UC3);
+        this.freeInputs = new ArrayBlockingQueue<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            freeInputs.add(new Input(this, targetSize));
+        }
+    }
+
     /**
      * Letterbox preprocessing for YOLO model
-     * Resizes image to target size while maintaining aspect ratio and adding padding
+     * Resizes image to target size while maintaining aspect ratio and adding padding.
+     * Blocks until an input buffer is free again if all of them are still in flight.
      */
-    public static Input letterbox(Mat src, int targetSize) {
-        int origHeight = src.rows();
-        int origWidth = src.cols();
-        
-        // Calculate scale to fit image in target size while maintaining aspect ratio
-        double scale = Math.min((double) targetSize / origWidth, (double) targetSize / origHeight);
-        
-        // Calculate new dimensions
-        int newWidth = (int) (origWidth * scale);
-        int newHeight = (int) (origHeight * scale);
-        
-        // Resize the image
-        Mat resized = new Mat();
-        Imgproc.resize(src, resized, new Size(newWidth, newHeight));
-        
-        // Calculate padding to center the image
-        double padX = (targetSize - newWidth) / 2.0;
-        double padY = (targetSize - newHeight) / 2.0;
-        
-        // Create padded image with gray background (114, 114, 114)
-        Mat padded = new Mat(targetSize, targetSize, CvType.CV_8UC3, new Scalar(114, 114, 114));
-        
-        // Copy resized image to center of padded image
-        Rect roi = new Rect((int) padX, (int) padY, newWidth, newHeight);
-        Mat roiMat = new Mat(padded, roi);
-        resized.copyTo(roiMat);
-        
-        // Convert BGR to RGB and normalize to [0,1]
-        Mat rgb = new Mat();
-        Imgproc.cvtColor(padded, rgb, Imgproc.COLOR_BGR2RGB);
-        
-        // Convert to float array (CHW format: channels, height, width)
-        float[] data = new float[3 * targetSize * targetSize];
-        byte[] imgData = new byte[(int) (rgb.total() * rgb.elemSize())];
-        rgb.get(0, 0, imgData);
-        
-        // Convert from HWC to CHW format and normalize
-        int idx = 0;
-        for (int c = 0; c < 3; c++) {
-            for (int h = 0; h < targetSize; h++) {
-                for (int w = 0; w < targetSize; w++) {
-                    int pixelIdx = (h * targetSize + w) * 3 + c;
-                    data[idx++] = (imgData[pixelIdx] & 0xFF) / 255.0f;
+    public Input letterbox(Mat src) throws InterruptedException {
+        if (src.cols() != origWidth || src.rows() != origHeight) {
+            updateGeometry(src.cols(), src.rows());
+        }
+
+        // Resize straight into the centre of the padded image
+        Imgproc.resize(src, roi, roiSize);
+
+        Input input = freeInputs.take();
+        input.inUse = true;
+        input.scale = scale;
+        input.padX = padX;
+        input.padY = padY;
+        input.origWidth = origWidth;
+        input.origHeight = origHeight;
+
+        // Convert BGR HWC to RGB CHW format and normalize to [0,1]
+        packer.pack(padded, input.data);
+
+        return input;
+    }
+
+    private static ChannelPacker createPacker(String packing, int targetSize) {
+        int pixelCount = targetSize * targetSize;
+        if ("blob".equalsIgnoreCase(packing)) {
+            System.out.println("⚡ OpenCV blobFromImage packing enabled");
+            return new BlobPacker(targetSize);
+        }
+        if ("vector".equalsIgnoreCase(packing)) {
+            if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+                try {
+                    ChannelPacker packer = new VectorPacker(pixelCount);
+                    System.out.println("⚡ Vector API packing enabled: " + VectorPacker.describe());
+                    return packer;
+                } catch (LinkageError | IllegalArgumentException e) {
+                    // Species this host's vector shapes can't provide; never worth failing startup over
+                    System.err.println("⚠️ Vector packing requested but not supported on this host ("
+                            + e + "), using scalar packing");
                 }
+            } else {
+                System.err.println("⚠️ Vector packing requested but jdk.incubator.vector is not loaded "
+                        + "(start the JVM with --add-modules jdk.incubator.vector), using scalar packing");
             }
         }
-        
-        // Clean up
-        resized.release();
+        return new ScalarPacker(pixelCount);
+    }
+
+    /**
+     * Recompute scale and padding for a new source resolution and reset the padded canvas
+     */
+    private void updateGeometry(int width, int height) {
+        origWidth = width;
+        origHeight = height;
+
+        // Calculate scale to fit image in target size while maintaining aspect ratio
+        scale = Math.min((double) targetSize / width, (double) targetSize / height);
+        int newWidth = (int) (width * scale);
+        int newHeight = (int) (height * scale);
+
+        // Calculate padding to center the image
+        padX = (targetSize - newWidth) / 2.0;
+        padY = (targetSize - newHeight) / 2.0;
+
+        // Gray background (114, 114, 114) around the resized image
+        padded.setTo(new Scalar(114, 114, 114));
+        if (roi != null) {
+            roi.release();
+        }
+        roi = padded.submat(new Rect((int) padX, (int) padY, newWidth, newHeight));
+        roiSize = new Size(newWidth, newHeight);
+
+        System.out.printf("📐 Letterbox geometry: %dx%d -> %dx%d, scale=%.3f, pad=(%.1f,%.1f)%n",
+                width, height, newWidth, newHeight, scale, padX, padY);
+    }
+
+    private void recycle(Input input) {
+        if (input.inUse) {
+            input.inUse = false;
+            freeInputs.offer(input);
+        }
+    }
+
+    /**
+     * Free the native working buffers
+     */
+    public void release() {
+        if (roi != null) {
+            roi.release();
+        }
         padded.release();
-        roiMat.release();
-        rgb.release();
-        
-        return new Input(data, scale, padX, padY, origWidth, origHeight);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,62 @@
+package com.example.droneguard.yolo;
+
+import com.example.droneguard.diagnostics.FrameTrace;
+
+import java.util.Arrays;
+
+/**
+ * Gaussian Soft-NMS: instead of dropping overlapping boxes, their confidence is decayed by
+ * {@code exp(-iou² / sigma)} and they stay in the running until they fall below the
+ * confidence threshold. Helps with drones flying close together, at O(n²) cost.
+ * Decayed confidences are written back into the buffer and end up in the detections.
+ */
+class SoftNms implements NmsStrategy {
+
+    private final float sigma;
+    private final float scoreThreshold;
+
+    SoftNms(float sigma, float scoreThreshold) {
+        this.sigma = sigma;
+        this.scoreThreshold = scoreThreshold;
+    }
+
+    @Override
+    public int select(DetectionBuffer c, float iouThreshold, FrameTrace trace) {
+        int size = c.size;
+        float[] score = c.confidence;
+        boolean[] done = c.suppressed;
+        Arrays.fill(done, 0, size, false);
+        int keptCount = 0;
+
+        for (int step = 0; step < size; step++) {
+            // Scores change as we go, so pick the best remaining box each round
+            int a = -1;
+            for (int i = 0; i < size; i++) {
+                if (!done[i] && (a == -1 || score[i] > score[a])) {
+                    a = i;
+                }
+            }
+            if (score[a] < scoreThreshold) break;
+
+            done[a] = true;
+            c.kept[keptCount++] = a;
+            if (trace.enabled()) {
+                trace.log("✅ Kept detection: conf=%.3f, box=(%.1f,%.1f,%.1f,%.1f)",
+                    score[a], c.x[a], c.y[a], c.w[a], c.h[a]);
+            }
+
+            for (int b = 0; b < size; b++) {
+                if (done[b]) continue;
+
+                float iou = c.iou(a, b);
+                if (iou > 0) {
+                    score[b] *= (float) Math.exp(-(iou * iou) / sigma);
+                    if (trace.enabled() && iou > iouThreshold) {
+                        trace.log("🔻 Decayed detection: conf=%.3f, IoU=%.3f", score[b], iou);
+                    }
+                }
+            }
+        }
+        return keptCount;
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.droneguard.yolo;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+import org.opencv.core.Mat;
+
+import java.nio.FloatBuffer;
+
+/**
+ * SIMD HWC to CHW packing built on the incubating JDK Vector API.
+ * Each step loads the interleaved bytes of a block of pixels as three byte vectors,
+ * shuffles one channel's bytes together and widens them straight to normalized floats in
+ * that channel's plane, so there is no intermediate float copy of the frame. RGB plane c
+ * comes from BGR channel 2-c, which also takes care of the color swap.
+ * Only loaded when {@code droneguard.preprocess.packing=vector} and the JVM runs with
+ * {@code --add-modules jdk.incubator.vector}.
+ */
+class VectorPacker implements Preprocessor.ChannelPacker {
+
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    private static final int LANES = FLOATS.length();
+    private static final VectorSpecies<Integer> INTS = VectorSpecies.of(int.class, VectorShape.forBitSize(LANES * 32));
+    // With 8 or more float lanes a step is LANES pixels, whose bytes convert to ints lane for lane.
+    // Narrower hosts (NEON, SSE, -XX:MaxVectorSize=16) have no byte vector that small, and C2 doesn't
+    // compile conversions that change the lane count, so there a step fills an int-sized byte vector
+    // and is widened in parts by spreading each byte over an int lane and masking it
+    private static final boolean SPREAD = LANES < 8;
+    private static final VectorSpecies<Byte> BYTES =
+            SPREAD ? INTS.withLanes(byte.class) : VectorSpecies.of(byte.class, VectorShape.forBitSize(LANES * 8));
+    private static final int PIXELS = BYTES.length();   // Pixels per step
+    private static final int PARTS = PIXELS / LANES;
+    private static final float SCALE = 1.0f / 255.0f;
+
+    // Part j of a step's bytes, each byte repeated across the four bytes of its int lane
+    private static final VectorShuffle<Byte> PART_0 = spread(0);
+    private static final VectorShuffle<Byte> PART_1 = spread(1);
+    private static final VectorShuffle<Byte> PART_2 = spread(2);
+    private static final VectorShuffle<Byte> PART_3 = spread(3);
+
+    // Indexed by RGB plane: plane c comes from BGR channel 2-c
+    private static final Channel[] PLANES = {new Channel(2), new Channel(1), new Channel(0)};
+
+    /**
+     * Picks one BGR channel out of the 3 * PIXELS bytes of a step: lane k wants byte
+     * 3k + channel, which sits in loaded vector (3k + channel) / PIXELS
+     */
+    private static final class Channel {
+        final VectorShuffle<Byte> first, second, third;
+        final VectorMask<Byte> inSecond, inThird;
+
+        Channel(int channel) {
+            int[][] lanes = new int[3][PIXELS];
+            boolean[][] inVector = new boolean[3][PIXELS];
+            for (int k = 0; k < PIXELS; k++) {
+                int index = 3 * k + channel;
+                lanes[index / PIXELS][k] = index % PIXELS;
+                inVector[index / PIXELS][k] = true;
+            }
+            first = VectorShuffle.fromArray(BYTES, lanes[0], 0);
+            second = VectorShuffle.fromArray(BYTES, lanes[1], 0);
+            third = VectorShuffle.fromArray(BYTES, lanes[2], 0);
+            inSecond = VectorMask.fromArray(BYTES, inVector[1], 0);
+            inThird = VectorMask.fromArray(BYTES, inVector[2], 0);
+        }
+
+        ByteVector select(ByteVector a, ByteVector b, ByteVector c) {
+            return a.rearrange(first)
+                    .blend(b.rearrange(second), inSecond)
+                    .blend(c.rearrange(third), inThird);
+        }
+    }
+
+    private static VectorShuffle<Byte> spread(int part) {
+        return VectorShuffle.fromOp(BYTES, i -> (part * LANES + i / 4) % PIXELS);
+    }
+
+    private final byte[] hwc;
+    private final float[] planes;
+
+    VectorPacker(int pixelCount) {
+        this.hwc = new byte[3 * pixelCount];
+        this.planes = new float[3 * pixelCount];
+    }
+
+    static String describe() {
+        return FLOATS + ", " + PIXELS + " pixels per step";
+    }
+
+    @Override
+    public void pack(Mat bgr, FloatBuffer chw) {
+        bgr.get(0, 0, hwc);
+        int pixelCount = hwc.length / 3;
+        int bound = BYTES.loopBound(pixelCount);
+        // One pass per plane; a single copy of the loop body stays small enough for C2 to inline
+        // every vector operation, which keeps the vectors out of the heap
+        for (int plane = 0; plane < 3; plane++) {
+            Channel channel = PLANES[plane];
+            int planeOffset = plane * pixelCount;
+            int p = 0;
+            for (; p < bound; p += PIXELS) {
+                int offset = 3 * p;
+                widen(channel.select(ByteVector.fromArray(BYTES, hwc, offset),
+                        ByteVector.fromArray(BYTES, hwc, offset + PIXELS),
+                        ByteVector.fromArray(BYTES, hwc, offset + 2 * PIXELS)), planeOffset + p);
+            }
+            for (; p < pixelCount; p++) {
+                planes[planeOffset + p] = (hwc[p * 3 + 2 - plane] & 0xFF) * SCALE;
+            }
+        }
+        chw.put(0, planes, 0, planes.length);
+    }
+
+    /**
+     * Zero-extend the bytes of one step to normalized floats at {@code planes[offset]}
+     */
+    private void widen(ByteVector bytes, int offset) {
+        if (!SPREAD) {
+            store((IntVector) bytes.convertShape(VectorOperators.ZERO_EXTEND_B2I, INTS, 0), offset);
+            return;
+        }
+        // Parts are spelled out so every shuffle is a constant
+        store(spreadInts(bytes, PART_0), offset);
+        store(spreadInts(bytes, PART_1), offset + LANES);
+        if (PARTS > 2) {
+            store(spreadInts(bytes, PART_2), offset + 2 * LANES);
+            store(spreadInts(bytes, PART_3), offset + 3 * LANES);
+        }
+    }
+
+    private static IntVector spreadInts(ByteVector bytes, VectorShuffle<Byte> part) {
+        return bytes.rearrange(part).reinterpretAsInts().and(0xFF);
+    }
+
+    private void store(IntVector ints, int offset) {
+        ((FloatVector) ints.convert(VectorOperators.I2F, 0))
+                .mul(SCALE)
+                .intoArray(planes, offset);
+    }
+}
@@ -1,35 +1,109 @@
 package com.example.droneguard.yolo;
 
 import ai.onnxruntime.*;
+import com.example.droneguard.diagnostics.DiagnosticsChannel;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
 import jakarta.annotation.PostConstruct;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Map;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Service
 public class YOLOOnnxService {
 
+    /**
+     * One run context: a session (own or shared) plus the pinned buffers a run writes into.
+     * A slot serves one run at a time; requests go to the least busy slot.
+     */
+    private static class Slot {
+        final int id;
+        final OrtSession session;
+        final ReentrantLock lock = new ReentrantLock(true);   // Fair, so cameras waiting on a slot take turns
+        final AtomicInteger load = new AtomicInteger();   // Runs queued on or executing in this slot
+        volatile long runs = 0;
+
+        // Output tensor pinned to a direct buffer, so ORT writes results where the postprocessor reads them
+        FloatBuffer outputBuffer;
+        OnnxTensor outputTensor;
+
+        // Staging buffer for [N,3,H,W] batches, frames are copied in once per batch
+        FloatBuffer batchInputBuffer;
+
+        // Candidate boxes of the frame being decoded, reused run after run
+        final DetectionBuffer candidates = new DetectionBuffer();
+        NmsStrategy nms;
+
+        Slot(int id, OrtSession session) {
+            this.id = id;
+            this.session = session;
+        }
+    }
+
+    private final OnnxSessionSettings sessionSettings;
+    private final DiagnosticsChannel diagnostics;
     private final String modelPath;
+    private final List<String> labels;
     private final int imgSize;
     private final float confThreshold;
     private final float nmsThreshold;
+    private final int maxBatchSize;
+    private final int poolSize;
+    private final boolean shareSession;
+    private final String nmsStrategy;
+    private final boolean nmsPerClass;
+    private final float softNmsSigma;
 
     private OrtEnvironment env;
-    private OrtSession session;
     private String inputName;
     private long[] inputShape;
+    private String outputName;
+    private long[] outputShape;
+    private Postprocessor.OutputLayout outputLayout;
+    private int outputSize;
+
+    private Slot[] slots;
+    private final AtomicInteger nextSlot = new AtomicInteger();
 
-    public YOLOOnnxService(@Value("${droneguard.model}") String modelPath,
+    public YOLOOnnxService(OnnxSessionSettings sessionSettings,
+                           DiagnosticsChannel diagnostics,
+                           Environment environment,
+                           @Value("${droneguard.model}") String modelPath,
                            @Value("${droneguard.imgsz}") int imgSize,
                            @Value("${droneguard.conf:0.5}") float confThreshold,
-                           @Value("${droneguard.nms:0.4}") float nmsThreshold) {
+                           @Value("${droneguard.nms:0.4}") float nmsThreshold,
+                           @Value("${droneguard.batch.max-size:1}") int maxBatchSize,
+                           @Value("${droneguard.onnx.pool-size:1}") int poolSize,
+                           @Value("${droneguard.onnx.share-session:false}") boolean shareSession,
+                           @Value("${droneguard.postprocess.nms:greedy}") String nmsStrategy,
+                           @Value("${droneguard.postprocess.per-class:false}") boolean nmsPerClass,
+                           @Value("${droneguard.postprocess.soft-sigma:0.5}") float softNmsSigma) {
+        this.sessionSettings = sessionSettings;
+        this.diagnostics = diagnostics;
         this.modelPath = modelPath;
+        this.labels = Binder.get(environment).bind("droneguard.labels", Bindable.listOf(String.class))
+                .orElse(List.of());
         this.imgSize = imgSize;
         this.confThreshold = confThreshold;
         this.nmsThreshold = nmsThreshold;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.poolSize = Math.max(1, poolSize);
+        this.shareSession = shareSession;
+        this.nmsStrategy = nmsStrategy;
+        this.nmsPerClass = nmsPerClass;
+        this.softNmsSigma = softNmsSigma;
     }
 
     @PostConstruct
@@ -37,82 +111,192 @@ public class YOLOOnnxService {
         System.out.println("🚀 Initializing YOLO model: " + modelPath);
 
         env = OrtEnvironment.getEnvironment();
-        OrtSession.SessionOptions opts = new OrtSession.SessionOptions();
-        session = env.createSession(modelPath, opts);
+        slots = new Slot[poolSize];
+        OrtSession shared = null;
+        for (int i = 0; i < poolSize; i++) {
+            OrtSession session;
+            if (shareSession && shared != null) {
+                session = shared;
+            } else {
+                // Separate sessions split the core budget between them
+                session = sessionSettings.createSession(env, modelPath, shareSession ? 1 : poolSize);
+                shared = session;
+            }
+            slots[i] = new Slot(i, session);
+            slots[i].nms = createNms();
+        }
 
+        OrtSession session = slots[0].session;
         inputName = session.getInputNames().iterator().next();
         inputShape = new long[]{1, 3, imgSize, imgSize};
+        outputName = session.getOutputNames().iterator().next();
+
+        // The exported model has dynamic axes, so run once on a blank image to learn the real output shape
+        FloatBuffer blank = allocateDirect(3 * imgSize * imgSize);
+        try (OnnxTensor warmupInput = OnnxTensor.createTensor(env, blank, inputShape);
+             OrtSession.Result warmup = session.run(Collections.singletonMap(inputName, warmupInput))) {
+            outputShape = ((TensorInfo) warmup.get(0).getInfo()).getShape();
+        }
+        outputLayout = Postprocessor.OutputLayout.fromShape(outputShape, imgSize, labels);
+        outputSize = outputLayout.size();
+        for (Slot slot : slots) {
+            slot.outputBuffer = allocateDirect(outputSize * maxBatchSize);
+            slot.outputTensor = OnnxTensor.createTensor(env, slot.outputBuffer.slice(0, outputSize), outputShape);
+            if (maxBatchSize > 1) {
+                slot.batchInputBuffer = allocateDirect(3 * imgSize * imgSize * maxBatchSize);
+            }
+        }
 
         System.out.printf("✅ Model loaded successfully:%n");
         System.out.printf("   Input name: %s%n", inputName);
         System.out.printf("   Input shape (assumed): [%s]%n", java.util.Arrays.toString(inputShape));
+        System.out.printf("   Output name: %s%n", outputName);
+        System.out.printf("   Output shape: %s (%s)%n", java.util.Arrays.toString(outputShape), outputLayout);
         System.out.printf("   Image size: %d%n", imgSize);
+        System.out.printf("   Max batch size: %d%n", maxBatchSize);
+        System.out.printf("   Inference slots: %d (%s)%n", poolSize, shareSession ? "shared session" : "one session each");
         System.out.printf("   Confidence threshold: %.2f%n", confThreshold);
-        System.out.printf("   NMS threshold: %.2f%n", nmsThreshold);
+        System.out.printf("   NMS threshold: %.2f (%s%s)%n", nmsThreshold, nmsStrategy, nmsPerClass ? ", per class" : "");
     }
 
+    /**
+     * Run the model on one preprocessed frame.
+     * Safe to call concurrently: each call runs on the least busy slot of the pool.
+     */
     public Postprocessor.Detections infer(Preprocessor.Input input) throws OrtException {
-        // Prepare input tensor [1,3,H,W]
-        float[][][][] tensorData = new float[1][3][imgSize][imgSize];
-        int idx = 0;
-        for (int c = 0; c < 3; c++)
-            for (int h = 0; h < imgSize; h++)
-                for (int w = 0; w < imgSize; w++)
-                    tensorData[0][c][h][w] = input.data[idx++];
-
-        OnnxTensor inputTensor = OnnxTensor.createTensor(env, tensorData);
-        Map<String, OnnxTensor> inputs = Collections.singletonMap(inputName, inputTensor);
-        OrtSession.Result result = session.run(inputs);
-
-        OnnxTensor outputTensor = (OnnxTensor) result.get(0);
-        Object outputValue = outputTensor.getValue();
-        float[] flatOutput;
-        int numDetections;
-
-        if (outputValue instanceof float[][][])
-            flatOutput = flatten3D((float[][][]) outputValue);
-        else if (outputValue instanceof float[][])
-            flatOutput = flatten2D((float[][]) outputValue);
-        else
-            throw new RuntimeException("Unexpected output type: " + outputValue.getClass());
-
-        // Use 80 classes (COCO) or adjust as needed
-        int numClasses = 80;
-        numDetections = (outputValue instanceof float[][][]) ? ((float[][][]) outputValue)[0].length : ((float[][]) outputValue).length;
-
-        Postprocessor.Detections detections = Postprocessor.process(flatOutput, numDetections, numClasses, confThreshold, nmsThreshold, input);
-
-        inputTensor.close();
-        result.close();
-        return detections;
+        Slot slot = acquire();
+        try {
+            return infer(slot, input);
+        } finally {
+            release(slot);
+        }
+    }
+
+    private Postprocessor.Detections infer(Slot slot, Preprocessor.Input input) throws OrtException {
+        // Wrap the preprocessor's direct CHW buffer as the [1,3,H,W] input tensor (no copy)
+        try (OnnxTensor inputTensor = OnnxTensor.createTensor(env, input.data, inputShape)) {
+            // The output lands in the pinned tensor, the result only wraps it
+            slot.session.run(Collections.singletonMap(inputName, inputTensor),
+                    Collections.singletonMap(outputName, slot.outputTensor)).close();
+            return Postprocessor.process(slot.outputBuffer, outputLayout, confThreshold, nmsThreshold, input,
+                    slot.candidates, slot.nms, diagnostics.startFrame());
+        }
+    }
+
+    /**
+     * Run the model once on up to {@code droneguard.batch.max-size} frames stacked into a [N,3,H,W] tensor.
+     * Detections are returned in the same order as the inputs.
+     */
+    public List<Postprocessor.Detections> inferBatch(List<Preprocessor.Input> inputs) throws OrtException {
+        int batchSize = inputs.size();
+        if (batchSize > maxBatchSize) {
+            throw new IllegalArgumentException("Batch of " + batchSize + " exceeds max batch size " + maxBatchSize);
+        }
+
+        Slot slot = acquire();
+        try {
+            if (batchSize == 1) {
+                return List.of(infer(slot, inputs.get(0)));
+            }
+
+            int inputSize = 3 * imgSize * imgSize;
+            for (int b = 0; b < batchSize; b++) {
+                slot.batchInputBuffer.put(b * inputSize, inputs.get(b).data, 0, inputSize);
+            }
+
+            long[] batchInputShape = {batchSize, 3, imgSize, imgSize};
+            long[] batchOutputShape = {batchSize, outputShape[1], outputShape[2]};
+            try (OnnxTensor inputTensor = OnnxTensor.createTensor(env, slot.batchInputBuffer.slice(0, batchSize * inputSize), batchInputShape);
+                 OnnxTensor batchOutput = OnnxTensor.createTensor(env, slot.outputBuffer.slice(0, batchSize * outputSize), batchOutputShape)) {
+                slot.session.run(Collections.singletonMap(inputName, inputTensor),
+                        Collections.singletonMap(outputName, batchOutput)).close();
+                List<Postprocessor.Detections> detections = new ArrayList<>(batchSize);
+                for (int b = 0; b < batchSize; b++) {
+                    FloatBuffer imageOutput = slot.outputBuffer.slice(b * outputSize, outputSize);
+                    detections.add(Postprocessor.process(imageOutput, outputLayout,
+                            confThreshold, nmsThreshold, inputs.get(b), slot.candidates, slot.nms,
+                            diagnostics.startFrame()));
+                }
+                return detections;
+            }
+        } finally {
+            release(slot);
+        }
+    }
+
+    private NmsStrategy createNms() {
+        NmsStrategy nms;
+        if ("grid".equalsIgnoreCase(nmsStrategy)) {
+            nms = new GridNms();
+        } else if ("soft".equalsIgnoreCase(nmsStrategy)) {
+            nms = new SoftNms(softNmsSigma, confThreshold);
+        } else {
+            if (!"greedy".equalsIgnoreCase(nmsStrategy)) {
+                System.err.println("⚠️ Unknown NMS strategy '" + nmsStrategy + "', using greedy");
+            }
+            nms = new NmsStrategy.Greedy();
+        }
+        return nmsPerClass ? new NmsStrategy.PerClass(nms) : nms;
+    }
+
+    /**
+     * Pick the slot with the fewest queued and running requests and lock it.
+     * The scan starts at a rotating offset so ties spread across the pool.
+     */
+    private Slot acquire() {
+        int start = Math.floorMod(nextSlot.getAndIncrement(), slots.length);
+        Slot best = slots[start];
+        for (int i = 1; i < slots.length; i++) {
+            Slot candidate = slots[(start + i) % slots.length];
+            if (candidate.load.get() < best.load.get()) {
+                best = candidate;
+            }
+        }
+        best.load.incrementAndGet();
+        best.lock.lock();
+        return best;
+    }
+
+    private void release(Slot slot) {
+        slot.runs++;
+        slot.lock.unlock();
+        slot.load.decrementAndGet();
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
     }
 
-    private float[] flatten2D(float[][] array) {
-        int dim1 = array.length;
-        int dim2 = array[0].length;
-        float[] result = new float[dim1 * dim2];
-        int idx = 0;
-        for (int i = 0; i < dim1; i++)
-            for (int j = 0; j < dim2; j++)
-                result[idx++] = array[i][j];
-        return result;
+    /**
+     * Runs served by each slot, e.g. "[120, 118]"
+     */
+    public String getSlotStats() {
+        long[] runs = new long[slots.length];
+        for (Slot slot : slots) {
+            runs[slot.id] = slot.runs;
+        }
+        return java.util.Arrays.toString(runs);
     }
 
-    private float[] flatten3D(float[][][] array) {
-        int batch = array.length;
-        int dim1 = array[0].length;
-        int dim2 = array[0][0].length;
-        float[] result = new float[batch * dim1 * dim2];
-        int idx = 0;
-        for (int b = 0; b < batch; b++)
-            for (int i = 0; i < dim1; i++)
-                for (int j = 0; j < dim2; j++)
-                    result[idx++] = array[b][i][j];
-        return result;
+    private static FloatBuffer allocateDirect(int floats) {
+        return ByteBuffer.allocateDirect(floats * Float.BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
     }
 
     public void cleanup() throws OrtException {
-        if (session != null) session.close();
+        for (Slot slot : slots) {
+            if (slot.outputTensor != null) slot.outputTensor.close();
+        }
+        // Shared sessions appear in several slots, close each one once
+        Set<OrtSession> sessions = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Slot slot : slots) {
+            if (sessions.add(slot.session)) slot.session.close();
+        }
         if (env != null) env.close();
     }
 }
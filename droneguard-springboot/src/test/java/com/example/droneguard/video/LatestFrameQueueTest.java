@@ -0,0 +1,47 @@
+package com.example.droneguard.video;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatestFrameQueueTest {
+
+    @BeforeAll
+    static void loadOpenCv() {
+        nu.pattern.OpenCV.loadShared();
+    }
+
+    @Test
+    void newerJobReplacesTheQueuedOne() {
+        AtomicLong dropped = new AtomicLong();
+        LatestFrameQueue queue = new LatestFrameQueue(dropped::incrementAndGet);
+        FrameJob first = job(1);
+        FrameJob second = job(2);
+        FrameJob third = job(3);
+
+        queue.put(first);
+        queue.put(second);
+        queue.put(third);
+
+        assertEquals(2, dropped.get());
+        assertTrue(first.frame.empty(), "displaced job is released");
+        assertTrue(second.frame.empty(), "displaced job is released");
+        assertSame(third, queue.poll());
+        assertFalse(third.frame.empty());
+        assertNull(queue.poll());
+        third.release();
+    }
+
+    private static FrameJob job(long sequence) {
+        return new FrameJob(sequence, new Mat(4, 4, CvType.CV_8UC3));
+    }
+}
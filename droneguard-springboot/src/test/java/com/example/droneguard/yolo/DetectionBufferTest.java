@@ -0,0 +1,68 @@
+package com.example.droneguard.yolo;
+
+import com.example.droneguard.diagnostics.FrameTrace;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DetectionBufferTest {
+
+    @Test
+    void perClassKeepsOverlappingBoxesOfDifferentClasses() {
+        // Class 1 hangs over the left border, so its left edge is negative
+        for (float width : new float[] {40, 20}) {
+            DetectionBuffer buffer = new DetectionBuffer();
+            buffer.add(780, 300, width, 40, 0.9f, 0);
+            buffer.add(0, 300, 40, 40, 0.8f, 1);
+
+            assertEquals(2, buffer.suppress(new NmsStrategy.PerClass(new NmsStrategy.Greedy()), 0.3f,
+                    null, FrameTrace.OFF).size(), "class 0 box of width " + width);
+        }
+    }
+
+    @Test
+    void perClassStillSuppressesWithinAClass() {
+        DetectionBuffer buffer = new DetectionBuffer();
+        buffer.add(100, 100, 40, 40, 0.9f, 1);
+        buffer.add(102, 101, 40, 40, 0.8f, 1);
+        buffer.add(102, 101, 40, 40, 0.7f, 0);
+
+        Postprocessor.Detections kept = buffer.suppress(new NmsStrategy.PerClass(new NmsStrategy.Greedy()), 0.45f,
+                null, FrameTrace.OFF);
+        assertEquals(2, kept.size());
+        assertEquals(0.9f, kept.getConfidence(0));
+        assertEquals(0.7f, kept.getConfidence(1));
+    }
+
+    @Test
+    void gridKeepsExactlyTheSameBoxesAsGreedy() {
+        Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            DetectionBuffer buffer = new DetectionBuffer();
+            int candidates = 1 + random.nextInt(400);
+            for (int i = 0; i < candidates; i++) {
+                // Clustered boxes, some over the frame border, a few much larger than the rest
+                float size = random.nextInt(10) == 0 ? 100 + random.nextFloat() * 300 : 5 + random.nextFloat() * 60;
+                buffer.add(random.nextFloat() * 800, random.nextFloat() * 600, size,
+                        size * (0.5f + random.nextFloat()), random.nextFloat(), random.nextInt(3));
+            }
+            float iouThreshold = 0.1f + random.nextFloat() * 0.8f;
+
+            assertArrayEquals(select(buffer, new NmsStrategy.Greedy(), iouThreshold),
+                    select(buffer, new GridNms(), iouThreshold), "round " + round);
+            assertArrayEquals(select(buffer, new NmsStrategy.PerClass(new NmsStrategy.Greedy()), iouThreshold),
+                    select(buffer, new NmsStrategy.PerClass(new GridNms()), iouThreshold), "per class, round " + round);
+        }
+    }
+
+    private static int[] select(DetectionBuffer buffer, NmsStrategy nms, float iouThreshold) {
+        buffer.sortByConfidence();
+        buffer.computeCorners();
+        int count = nms.select(buffer, iouThreshold, FrameTrace.OFF);
+        return Arrays.copyOf(buffer.kept, count);
+    }
+}
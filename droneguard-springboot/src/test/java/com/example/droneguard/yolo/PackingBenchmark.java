@@ -0,0 +1,73 @@
+package com.example.droneguard.yolo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HWC to CHW packing of one letterboxed frame per strategy.
+ * Build with {@code mvn test-compile}, then run
+ * {@code java -cp target/test-classes:target/classes:<test classpath> org.openjdk.jmh.Main PackingBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class PackingBenchmark {
+
+    @Param({"320", "640"})
+    int size;
+
+    @Param({"scalar", "vector", "blob"})
+    String packing;
+
+    private Mat bgr;
+    private FloatBuffer chw;
+    private Preprocessor.ChannelPacker packer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        nu.pattern.OpenCV.loadShared();
+        bgr = new Mat(size, size, CvType.CV_8UC3);
+        Core.randu(bgr, 0, 256);
+        chw = ByteBuffer.allocateDirect(3 * size * size * Float.BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        packer = switch (packing) {
+            case "vector" -> new VectorPacker(size * size);
+            case "blob" -> new Preprocessor.BlobPacker(size);
+            default -> new Preprocessor.ScalarPacker(size * size);
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        bgr.release();
+    }
+
+    @Benchmark
+    public FloatBuffer pack() {
+        packer.pack(bgr, chw);
+        return chw;
+    }
+}